@@ -268,12 +268,19 @@ public final class FloatingFolder extends StandOutWindow {
 					mFolders.put(DEFAULT_ID, new FolderModel());
 					show(DEFAULT_ID);
 				} else {
+					int[] ids = new int[mFolders.size()];
+					int count = 0;
 					for (int i = 0; i < mFolders.size(); i++) {
 						FolderModel folder = mFolders.get(mFolders.keyAt(i));
 						if (folder.shown) {
-							show(folder.id);
+							ids[count++] = folder.id;
 						}
 					}
+
+					// restore all folders in one pass
+					int[] shownIds = new int[count];
+					System.arraycopy(ids, 0, shownIds, 0, count);
+					showMany(shownIds);
 				}
 				break;
 		}
@@ -0,0 +1,70 @@
+package wei.mark.standout;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of passing one payload through the ring of a
+ * {@link SharedMemoryChannel}, written and read on one thread, against the
+ * copies a parceled byte array goes through: written into a parcel, and read
+ * out of it into a new array. The parcel is stood in for by a byte stream.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SharedMemoryRingBenchmark {
+	@Param({ "64", "4096", "262144" })
+	public int size;
+
+	private SharedMemoryRing ring;
+	private byte[] payload;
+
+	@Setup
+	public void setUp() {
+		int capacity = 4 * (size + SharedMemoryRing.RECORD_HEADER_SIZE);
+		ring = SharedMemoryRing.format(ByteBuffer
+				.allocateDirect(SharedMemoryRing.HEADER_SIZE + capacity),
+				capacity);
+		payload = new byte[size];
+	}
+
+	@Benchmark
+	public byte[] ring() {
+		ring.write(payload, 0, payload.length);
+		return ring.read();
+	}
+
+	@Benchmark
+	public byte[] parcel() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(size + 4);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(payload.length);
+		out.write(payload);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				bytes.toByteArray()));
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		return data;
+	}
+}
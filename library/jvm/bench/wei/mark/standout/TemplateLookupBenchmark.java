@@ -0,0 +1,66 @@
+package wei.mark.standout;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of finding the intent template of a class and action code, once per
+ * intent sent. Compares the string key used before, the class name and code
+ * joined on every lookup, with {@link ClassCodeMap}. The templates are plain
+ * objects, since building intents needs Android.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateLookupBenchmark {
+	private static final int CODES = 12;
+	private static final Class<?>[] CLASSES = { String.class, Integer.class,
+			Long.class, Double.class };
+
+	private ConcurrentHashMap<String, Object> byName;
+	private ClassCodeMap<Object> byClass;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		byName = new ConcurrentHashMap<String, Object>();
+		byClass = new ClassCodeMap<Object>(CODES);
+		for (Class<?> cls : CLASSES) {
+			for (int code = 0; code < CODES; code++) {
+				Object template = new Object();
+				byName.put(cls.getName() + '#' + code, template);
+				byClass.putIfAbsent(cls, code, template);
+			}
+		}
+	}
+
+	@Benchmark
+	public Object stringKey() {
+		int i = next++;
+		Class<?> cls = CLASSES[i & 3];
+		int code = i % CODES;
+		return byName.get(cls.getName() + '#' + code);
+	}
+
+	@Benchmark
+	public Object classCodeMap() {
+		int i = next++;
+		Class<?> cls = CLASSES[i & 3];
+		int code = i % CODES;
+		return byClass.get(cls, code);
+	}
+}
@@ -0,0 +1,102 @@
+package wei.mark.standout;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the {@link WindowIndex} queries, with windows spread over a phone
+ * sized screen:
+ * <ul>
+ * <li>windowAt: hit-testing a point, against a scan of every window for the
+ * topmost one containing it.</li>
+ * <li>nearestEdges: snapping a moving window, with a snapping distance and
+ * with a distance far larger than the screen, which checks every window
+ * instead of every cell.</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WindowIndexBenchmark {
+	private static final int WIDTH = 1080;
+	private static final int HEIGHT = 1920;
+	private static final int POINTS = 1024;
+
+	@Param({ "10", "100" })
+	int windows;
+
+	private WindowIndex<Integer> index;
+	private int[][] rectangles;
+	private int[] xs, ys;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Random random = new Random(42);
+		index = new WindowIndex<Integer>();
+		rectangles = new int[windows][];
+		for (int i = 0; i < windows; i++) {
+			int x = random.nextInt(WIDTH), y = random.nextInt(HEIGHT);
+			rectangles[i] = new int[] { x, y, x + 100 + random.nextInt(300),
+					y + 100 + random.nextInt(300) };
+			index.put(i, rectangles[i][0], rectangles[i][1], rectangles[i][2],
+					rectangles[i][3]);
+		}
+
+		xs = new int[POINTS];
+		ys = new int[POINTS];
+		for (int i = 0; i < POINTS; i++) {
+			xs[i] = random.nextInt(WIDTH);
+			ys[i] = random.nextInt(HEIGHT);
+		}
+	}
+
+	@Benchmark
+	public Integer windowAtScan() {
+		int i = next++ & (POINTS - 1);
+		int x = xs[i], y = ys[i];
+		// later windows are on top
+		for (int w = rectangles.length - 1; w >= 0; w--) {
+			int[] r = rectangles[w];
+			if (x >= r[0] && x < r[2] && y >= r[1] && y < r[3]) {
+				return w;
+			}
+		}
+		return null;
+	}
+
+	@Benchmark
+	public Integer windowAtIndex() {
+		int i = next++ & (POINTS - 1);
+		return index.windowAt(xs[i], ys[i]);
+	}
+
+	@Benchmark
+	public WindowIndex.Edges nearestEdges() {
+		int i = next++ & (POINTS - 1);
+		return index.nearestEdges(xs[i], ys[i], xs[i] + 200, ys[i] + 200, 32,
+				null);
+	}
+
+	@Benchmark
+	public WindowIndex.Edges nearestEdgesHugeDistance() {
+		int i = next++ & (POINTS - 1);
+		return index.nearestEdges(xs[i], ys[i], xs[i] + 200, ys[i] + 200,
+				1 << 20, null);
+	}
+}
@@ -0,0 +1,113 @@
+package wei.mark.standout;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of finding a cached window by id, as done by getWindow(), hide(),
+ * close() and focus().
+ *
+ * <p>
+ * {@link WindowCache} stores Android views, so it cannot run here. The three
+ * lookup paths are reproduced with the same data layout instead:
+ * <ul>
+ * <li>classMap: the old cache, a HashMap from the class to a SparseArray,
+ * which is a binary search over sorted int keys.</li>
+ * <li>slot: the slot arrays, a binary search over the sorted ids of the slot
+ * the service registered.</li>
+ * <li>handle: a WindowHandle, one field read.</li>
+ * </ul>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WindowLookupBenchmark {
+	// a SparseArray of the old cache
+	static final class IdArray {
+		final int[] keys;
+		final Object[] values;
+
+		IdArray(int[] keys, Object[] values) {
+			this.keys = keys;
+			this.values = values;
+		}
+
+		Object get(int key) {
+			int index = Arrays.binarySearch(keys, key);
+			return index < 0 ? null : values[index];
+		}
+	}
+
+	static final class Handle {
+		volatile Object window;
+	}
+
+	@Param({ "4", "64" })
+	public int windows;
+
+	private HashMap<Class<?>, IdArray> classMap;
+	private IdArray[] slots;
+	private Handle[] handles;
+	private Class<?> cls;
+	private int slot;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		int[] ids = new int[windows];
+		Object[] values = new Object[windows];
+		handles = new Handle[windows];
+		for (int i = 0; i < windows; i++) {
+			ids[i] = i;
+			values[i] = new Object();
+			handles[i] = new Handle();
+			handles[i].window = values[i];
+		}
+
+		// other window classes of the application
+		Class<?>[] classes = { String.class, Integer.class, Long.class };
+		classMap = new HashMap<Class<?>, IdArray>();
+		slots = new IdArray[classes.length];
+		for (int i = 0; i < classes.length; i++) {
+			IdArray array = new IdArray(ids.clone(), values.clone());
+			classMap.put(classes[i], array);
+			slots[i] = array;
+		}
+		cls = Long.class;
+		slot = 2;
+	}
+
+	@Benchmark
+	public Object classMap() {
+		int id = next++ % windows;
+		return classMap.get(cls).get(id);
+	}
+
+	@Benchmark
+	public Object slot() {
+		int id = next++ % windows;
+		return slots[slot].get(id);
+	}
+
+	@Benchmark
+	public Object handle() {
+		int id = next++ % windows;
+		return handles[id].window;
+	}
+}
@@ -0,0 +1,41 @@
+package wei.mark.standout;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class ClassCodeMapTest {
+
+	@Test
+	public void missingValueIsNull() {
+		ClassCodeMap<Object> map = new ClassCodeMap<Object>(4);
+		assertNull(map.get(String.class, 0));
+
+		map.putIfAbsent(String.class, 1, new Object());
+		assertNull(map.get(String.class, 0));
+		assertNull(map.get(Integer.class, 1));
+	}
+
+	@Test
+	public void firstValueIsKept() {
+		ClassCodeMap<Object> map = new ClassCodeMap<Object>(4);
+		Object first = new Object();
+		assertSame(first, map.putIfAbsent(String.class, 3, first));
+		assertSame(first, map.putIfAbsent(String.class, 3, new Object()));
+		assertSame(first, map.get(String.class, 3));
+	}
+
+	@Test
+	public void classesAndCodesAreSeparate() {
+		ClassCodeMap<Object> map = new ClassCodeMap<Object>(2);
+		Object a = new Object(), b = new Object(), c = new Object();
+		map.putIfAbsent(String.class, 0, a);
+		map.putIfAbsent(String.class, 1, b);
+		map.putIfAbsent(Integer.class, 0, c);
+
+		assertSame(a, map.get(String.class, 0));
+		assertSame(b, map.get(String.class, 1));
+		assertSame(c, map.get(Integer.class, 0));
+	}
+}
@@ -0,0 +1,168 @@
+package wei.mark.standout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameBatcherTest {
+	// a main thread queue with a clock that only moves when told to
+	static class FakeTimer implements FrameBatcher.Timer {
+		long now;
+		final List<Runnable> callbacks = new ArrayList<Runnable>();
+		final List<Long> times = new ArrayList<Long>();
+
+		@Override
+		public long uptimeMillis() {
+			return now;
+		}
+
+		@Override
+		public void postAtTime(Runnable callback, long uptimeMillis) {
+			callbacks.add(callback);
+			times.add(uptimeMillis);
+		}
+
+		@Override
+		public void removeCallbacks(Runnable callback) {
+			for (int i = callbacks.size() - 1; i >= 0; i--) {
+				if (callbacks.get(i) == callback) {
+					callbacks.remove(i);
+					times.remove(i);
+				}
+			}
+		}
+
+		// run the callbacks that are due, like the main thread would
+		void advanceTo(long time) {
+			now = time;
+			for (int i = 0; i < callbacks.size();) {
+				if (times.get(i) <= now) {
+					Runnable callback = callbacks.remove(i);
+					times.remove(i);
+					callback.run();
+					i = 0;
+				} else {
+					i++;
+				}
+			}
+		}
+	}
+
+	private FakeTimer timer;
+	private List<Object> applied;
+	private List<Integer> appliedParams;
+	private FrameBatcher<Object, Integer> batcher;
+
+	@Before
+	public void setUp() {
+		timer = new FakeTimer();
+		timer.now = 5;
+		applied = new ArrayList<Object>();
+		appliedParams = new ArrayList<Integer>();
+		batcher = new FrameBatcher<Object, Integer>(timer, 16,
+				new LayoutBatch.Applier<Object, Integer>() {
+
+					@Override
+					public void apply(Object window, Integer params) {
+						applied.add(window);
+						appliedParams.add(params);
+					}
+				});
+	}
+
+	@Test
+	public void burstOfMovesWithinAFrameIsAppliedOnce() {
+		// what Window.Editor.commit() schedules while a window is dragged
+		Object window = new Object();
+		for (int i = 0; i < 100; i++) {
+			timer.now = 5 + i % 10;
+			batcher.schedule(window, i);
+		}
+
+		assertEquals(1, timer.callbacks.size());
+		assertEquals(Long.valueOf(16), timer.times.get(0));
+		assertTrue(applied.isEmpty());
+
+		timer.advanceTo(16);
+		assertEquals(1, applied.size());
+		assertEquals(Integer.valueOf(99), appliedParams.get(0));
+		assertFalse(batcher.isPending(window));
+	}
+
+	@Test
+	public void movesInLaterFramesAreAppliedInTheirFrame() {
+		Object window = new Object();
+		batcher.schedule(window, 1);
+		timer.advanceTo(16);
+
+		batcher.schedule(window, 2);
+		batcher.schedule(window, 3);
+		assertEquals(Long.valueOf(32), timer.times.get(0));
+		timer.advanceTo(32);
+
+		assertEquals(2, applied.size());
+		assertEquals(Integer.valueOf(3), appliedParams.get(1));
+	}
+
+	@Test
+	public void cancelledUpdateIsNotApplied() {
+		Object first = new Object();
+		Object second = new Object();
+		batcher.schedule(first, 1);
+		batcher.schedule(second, 2);
+		batcher.cancel(first);
+
+		timer.advanceTo(16);
+		assertEquals(1, applied.size());
+		assertEquals(second, applied.get(0));
+	}
+
+	@Test
+	public void cancelAllStopsWaitingForTheFrame() {
+		batcher.schedule(new Object(), 1);
+		batcher.requestFrame();
+		batcher.cancelAll();
+
+		assertTrue(timer.callbacks.isEmpty());
+		timer.advanceTo(16);
+		assertTrue(applied.isEmpty());
+	}
+
+	@Test
+	public void listenerUpdatesJoinTheSameFrame() {
+		final Object window = new Object();
+		final List<Long> frames = new ArrayList<Long>();
+		batcher.setListener(new FrameBatcher.Listener() {
+
+			@Override
+			public boolean onFrame(long frameTimeMillis) {
+				frames.add(frameTimeMillis);
+				batcher.schedule(window, frames.size());
+				return frames.size() < 3;
+			}
+		});
+
+		batcher.requestFrame();
+		timer.advanceTo(16);
+		assertEquals(1, applied.size());
+		assertEquals(1, timer.callbacks.size());
+
+		timer.advanceTo(32);
+		timer.advanceTo(48);
+		timer.advanceTo(64);
+		assertEquals(3, frames.size());
+		assertEquals(3, applied.size());
+		assertTrue(timer.callbacks.isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void frameIntervalMustBePositive() {
+		new FrameBatcher<Object, Integer>(timer, 0, null);
+	}
+}
@@ -0,0 +1,104 @@
+package wei.mark.standout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LayoutBatchTest {
+	private LayoutBatch<Object, Integer> batch;
+	private List<Object> applied;
+	private List<Integer> appliedParams;
+	private LayoutBatch.Applier<Object, Integer> applier;
+
+	@Before
+	public void setUp() {
+		batch = new LayoutBatch<Object, Integer>();
+		applied = new ArrayList<Object>();
+		appliedParams = new ArrayList<Integer>();
+		applier = new LayoutBatch.Applier<Object, Integer>() {
+
+			@Override
+			public void apply(Object window, Integer params) {
+				applied.add(window);
+				appliedParams.add(params);
+			}
+		};
+	}
+
+	@Test
+	public void burstOfUpdatesIsAppliedOnce() {
+		Object window = new Object();
+		for (int i = 0; i < 1000; i++) {
+			batch.put(window, i);
+		}
+
+		assertEquals(1, batch.flush(applier));
+		assertEquals(1, applied.size());
+		assertEquals(Integer.valueOf(999), appliedParams.get(0));
+	}
+
+	@Test
+	public void eachWindowIsAppliedOncePerFlush() {
+		Object first = new Object();
+		Object second = new Object();
+		for (int i = 0; i < 10; i++) {
+			batch.put(first, i);
+			batch.put(second, i);
+		}
+
+		assertEquals(2, batch.flush(applier));
+		assertEquals(first, applied.get(0));
+		assertEquals(second, applied.get(1));
+		assertEquals(0, batch.flush(applier));
+	}
+
+	@Test
+	public void updateOfReplacedWindowIsNotAppliedToNewWindow() {
+		// a window closed and another shown with the same id in one frame
+		Object closed = new Object();
+		Object reused = new Object();
+		batch.put(closed, 1);
+		batch.remove(closed);
+		batch.put(reused, 2);
+
+		batch.flush(applier);
+		assertEquals(1, applied.size());
+		assertEquals(reused, applied.get(0));
+		assertEquals(Integer.valueOf(2), appliedParams.get(0));
+	}
+
+	@Test
+	public void updatesPutWhileFlushingWaitForNextFlush() {
+		final Object window = new Object();
+		batch.put(window, 1);
+
+		batch.flush(new LayoutBatch.Applier<Object, Integer>() {
+
+			@Override
+			public void apply(Object w, Integer params) {
+				batch.put(window, params + 1);
+			}
+		});
+		assertTrue(batch.contains(window));
+
+		batch.flush(applier);
+		assertEquals(Integer.valueOf(2), appliedParams.get(0));
+		assertFalse(batch.contains(window));
+	}
+
+	@Test
+	public void clearDropsAllUpdates() {
+		batch.put(new Object(), 1);
+		batch.put(new Object(), 2);
+		batch.clear();
+
+		assertEquals(0, batch.size());
+		assertEquals(0, batch.flush(applier));
+	}
+}
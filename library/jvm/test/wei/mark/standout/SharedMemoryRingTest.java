@@ -0,0 +1,190 @@
+package wei.mark.standout;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class SharedMemoryRingTest {
+	private static final int CAPACITY = 64;
+
+	private static ByteBuffer newBuffer(int capacity) {
+		return ByteBuffer.allocateDirect(SharedMemoryRing.HEADER_SIZE
+				+ capacity);
+	}
+
+	private static byte[] record(int length, int seed) {
+		byte[] data = new byte[length];
+		for (int i = 0; i < length; i++) {
+			data[i] = (byte) (seed + i);
+		}
+		return data;
+	}
+
+	@Test
+	public void recordsAreReadInOrderAcrossTheEnd() {
+		SharedMemoryRing ring = SharedMemoryRing.format(newBuffer(CAPACITY),
+				CAPACITY);
+		assertTrue(ring.isEmpty());
+		assertNull(ring.read());
+
+		// 100 rounds of records that do not divide the capacity
+		for (int i = 0; i < 100; i++) {
+			byte[] first = record(13, i);
+			byte[] second = record(7, -i);
+			assertTrue(ring.write(first, 0, first.length));
+			assertTrue(ring.write(second, 0, second.length));
+			assertArrayEquals(first, ring.read());
+			assertArrayEquals(second, ring.read());
+			assertTrue(ring.isEmpty());
+		}
+	}
+
+	@Test
+	public void fullRingRejectsRecordsUntilRead() {
+		SharedMemoryRing ring = SharedMemoryRing.format(newBuffer(CAPACITY),
+				CAPACITY);
+		byte[] half = record(CAPACITY / 2 - SharedMemoryRing.RECORD_HEADER_SIZE,
+				1);
+		assertTrue(ring.write(half, 0, half.length));
+		assertTrue(ring.write(half, 0, half.length));
+		assertFalse(ring.write(new byte[0], 0, 0));
+
+		assertArrayEquals(half, ring.read());
+		assertTrue(ring.write(half, 0, half.length));
+	}
+
+	@Test
+	public void emptyRecordIsRead() {
+		SharedMemoryRing ring = SharedMemoryRing.format(newBuffer(CAPACITY),
+				CAPACITY);
+		assertTrue(ring.write(new byte[0], 0, 0));
+		assertFalse(ring.isEmpty());
+		assertEquals(0, ring.read().length);
+		assertTrue(ring.isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void recordLargerThanRingIsRefused() {
+		SharedMemoryRing ring = SharedMemoryRing.format(newBuffer(CAPACITY),
+				CAPACITY);
+		ring.write(new byte[CAPACITY], 0, CAPACITY);
+	}
+
+	@Test
+	public void secondInstanceSeesTheSameRing() {
+		ByteBuffer buffer = newBuffer(CAPACITY);
+		SharedMemoryRing writer = SharedMemoryRing.format(buffer, CAPACITY);
+		SharedMemoryRing reader = new SharedMemoryRing(buffer.duplicate());
+		assertEquals(CAPACITY, reader.getCapacity());
+
+		byte[] data = record(20, 3);
+		assertTrue(writer.write(data, 0, data.length));
+		assertArrayEquals(data, reader.read());
+		assertTrue(writer.isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void bufferWithoutRingIsRefused() {
+		new SharedMemoryRing(newBuffer(CAPACITY));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void capacityLargerThanBufferIsRefused() {
+		ByteBuffer buffer = newBuffer(CAPACITY);
+		SharedMemoryRing.format(buffer, CAPACITY);
+		buffer.putInt(SharedMemoryRing.OFFSET_CAPACITY, CAPACITY + 1);
+		new SharedMemoryRing(buffer);
+	}
+
+	@Test
+	public void corruptLengthIsNotCopied() {
+		ByteBuffer buffer = newBuffer(CAPACITY);
+		SharedMemoryRing ring = SharedMemoryRing.format(buffer, CAPACITY);
+		byte[] data = record(8, 0);
+		assertTrue(ring.write(data, 0, data.length));
+
+		for (int length : new int[] { -1, 9, Integer.MAX_VALUE }) {
+			buffer.putInt(SharedMemoryRing.HEADER_SIZE, length);
+			try {
+				ring.read();
+				fail("Read a record of " + length + " bytes.");
+			} catch (IllegalStateException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void corruptPositionsAreNotUsed() {
+		ByteBuffer buffer = newBuffer(CAPACITY);
+		SharedMemoryRing ring = SharedMemoryRing.format(buffer, CAPACITY);
+
+		int[][] positions = { { -1, 0 }, { 2 * CAPACITY, 0 },
+				{ CAPACITY + 1, 0 }, { 0, 1 } };
+		for (int[] position : positions) {
+			buffer.putInt(SharedMemoryRing.OFFSET_WRITE, position[0]);
+			buffer.putInt(SharedMemoryRing.OFFSET_READ, position[1]);
+			try {
+				ring.read();
+				fail("Read with positions " + position[0] + ", "
+						+ position[1] + ".");
+			} catch (IllegalStateException expected) {
+			}
+		}
+	}
+
+	@Test
+	public void writerAndReaderThreadsAgree() throws InterruptedException {
+		final int count = 200000;
+		ByteBuffer buffer = newBuffer(1024);
+		final SharedMemoryRing writer = SharedMemoryRing.format(buffer, 1024);
+		final SharedMemoryRing reader = new SharedMemoryRing(buffer
+				.duplicate());
+		final Throwable[] error = new Throwable[1];
+
+		Thread writing = new Thread() {
+
+			@Override
+			public void run() {
+				for (int i = 0; i < count; i++) {
+					byte[] data = record(1 + i % 97, i);
+					while (!writer.write(data, 0, data.length)) {
+						Thread.yield();
+					}
+				}
+			}
+		};
+		Thread reading = new Thread() {
+
+			@Override
+			public void run() {
+				try {
+					for (int i = 0; i < count; i++) {
+						byte[] data;
+						while ((data = reader.read()) == null) {
+							Thread.yield();
+						}
+						assertArrayEquals(record(1 + i % 97, i), data);
+					}
+				} catch (Throwable ex) {
+					error[0] = ex;
+				}
+			}
+		};
+
+		writing.start();
+		reading.start();
+		writing.join();
+		reading.join();
+		if (error[0] != null) {
+			throw new AssertionError(error[0]);
+		}
+		assertTrue(reader.isEmpty());
+	}
+}
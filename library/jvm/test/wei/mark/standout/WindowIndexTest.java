@@ -0,0 +1,277 @@
+package wei.mark.standout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class WindowIndexTest {
+	private WindowIndex<String> index;
+
+	@Before
+	public void setUp() {
+		index = new WindowIndex<String>(100);
+	}
+
+	@Test
+	public void windowAtFindsTheWindowUnderThePoint() {
+		index.put("a", 0, 0, 50, 50);
+		index.put("b", 200, 200, 300, 300);
+
+		assertEquals("a", index.windowAt(0, 0));
+		assertEquals("a", index.windowAt(49, 49));
+		assertEquals("b", index.windowAt(250, 250));
+		assertNull(index.windowAt(100, 100));
+	}
+
+	@Test
+	public void rectanglesAreHalfOpen() {
+		index.put("a", 0, 0, 50, 50);
+
+		assertNull(index.windowAt(50, 0));
+		assertNull(index.windowAt(0, 50));
+		assertTrue(index.overlapping(50, 0, 60, 10).isEmpty());
+	}
+
+	@Test
+	public void windowAtPicksTheTopmostWindow() {
+		index.put("bottom", 0, 0, 100, 100);
+		index.put("top", 50, 50, 150, 150);
+
+		assertEquals("top", index.windowAt(75, 75));
+		assertEquals("bottom", index.windowAt(25, 25));
+
+		assertTrue(index.raise("bottom"));
+		assertEquals("bottom", index.windowAt(75, 75));
+	}
+
+	@Test
+	public void movingKeepsTheZOrder() {
+		index.put("bottom", 0, 0, 100, 100);
+		index.put("top", 200, 200, 300, 300);
+
+		index.put("top", 0, 0, 100, 100);
+		index.put("bottom", 10, 10, 110, 110);
+
+		assertEquals("top", index.windowAt(50, 50));
+		assertNull(index.windowAt(250, 250));
+	}
+
+	@Test
+	public void overlappingListsWindowsBottomToTop() {
+		index.put("a", 0, 0, 100, 100);
+		index.put("b", 50, 50, 500, 500);
+		index.put("c", 400, 400, 450, 450);
+		index.put("far", 1000, 1000, 1100, 1100);
+		index.raise("a");
+
+		assertEquals(Arrays.asList("b", "c", "a"),
+				index.overlapping(0, 0, 460, 460));
+		assertEquals(Collections.singletonList("b"),
+				index.overlapping(200, 200, 300, 300));
+	}
+
+	@Test
+	public void overlappingWithEmptyRectangleFindsNothing() {
+		index.put("a", 0, 0, 100, 100);
+
+		assertTrue(index.overlapping(10, 10, 10, 20).isEmpty());
+		assertTrue(index.overlapping(10, 20, 20, 10).isEmpty());
+	}
+
+	@Test
+	public void overlappingLargeRectangleChecksEveryWindow() {
+		index.put("a", -500, -500, -400, -400);
+		index.put("b", 1000, 1000, 1100, 1100);
+		index.put("empty", 0, 0, 0, 100);
+
+		assertEquals(Arrays.asList("a", "b"), index.overlapping(
+				Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE,
+				Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void negativeCoordinatesGetTheirOwnCells() {
+		index.put("negative", -150, -150, -50, -50);
+		index.put("positive", 0, 0, 100, 100);
+
+		assertEquals("negative", index.windowAt(-150, -150));
+		assertEquals("negative", index.windowAt(-51, -51));
+		assertNull(index.windowAt(-50, -50));
+		assertNull(index.windowAt(-1, -1));
+		assertEquals("positive", index.windowAt(0, 0));
+		assertEquals(Collections.singletonList("negative"),
+				index.overlapping(-200, -200, -100, -100));
+	}
+
+	@Test
+	public void removedWindowsAreNotFound() {
+		index.put("a", 0, 0, 100, 100);
+
+		assertTrue(index.remove("a"));
+		assertFalse(index.remove("a"));
+		assertFalse(index.contains("a"));
+		assertFalse(index.raise("a"));
+		assertNull(index.windowAt(50, 50));
+		assertEquals(0, index.size());
+	}
+
+	@Test
+	public void emptyRectanglesAreIndexedButNotFound() {
+		index.put("a", 0, 0, 0, 100);
+
+		assertTrue(index.contains("a"));
+		assertNull(index.windowAt(0, 50));
+
+		index.put("a", 0, 0, 100, 100);
+		assertEquals("a", index.windowAt(0, 50));
+	}
+
+	@Test
+	public void nearestEdgesSnapsToNearbyWindows() {
+		index.put("left", 0, 150, 100, 250);
+		index.put("below", 200, 310, 300, 400);
+		index.put("far", 1000, 1000, 1100, 1100);
+
+		WindowIndex.Edges edges = index.nearestEdges(110, 200, 210, 300, 20,
+				null);
+
+		assertEquals(100, edges.left);
+		assertEquals(WindowIndex.NO_EDGE, edges.top);
+		assertEquals(200, edges.right);
+		assertEquals(310, edges.bottom);
+	}
+
+	@Test
+	public void nearestEdgesPicksTheNearestEdge() {
+		index.put("a", 0, 0, 95, 100);
+		index.put("b", 0, 0, 98, 100);
+
+		WindowIndex.Edges edges = index.nearestEdges(100, 0, 200, 100, 10,
+				null);
+
+		assertEquals(98, edges.left);
+		assertEquals(0, edges.top);
+		assertEquals(100, edges.bottom);
+	}
+
+	@Test
+	public void nearestEdgesIgnoresTheExcludedWindow() {
+		index.put("moving", 100, 100, 200, 200);
+		index.put("other", 0, 0, 95, 100);
+
+		WindowIndex.Edges edges = index.nearestEdges(100, 100, 200, 200, 10,
+				"moving");
+
+		assertEquals(95, edges.left);
+		assertEquals(100, edges.top);
+		assertEquals(WindowIndex.NO_EDGE, edges.right);
+		assertEquals(WindowIndex.NO_EDGE, edges.bottom);
+	}
+
+	@Test
+	public void nearestEdgesWithNegativeCoordinates() {
+		index.put("a", -300, -300, -205, -200);
+
+		WindowIndex.Edges edges = index.nearestEdges(-200, -300, -100, -200,
+				10, null);
+
+		assertEquals(-205, edges.left);
+		assertEquals(-300, edges.top);
+		assertEquals(-200, edges.bottom);
+	}
+
+	@Test(timeout = 1000)
+	public void nearestEdgesWithHugeDistanceChecksEveryWindow() {
+		index.put("a", 0, 0, 100, 100);
+		index.put("b", 5000, 5000, 5100, 5100);
+		index.put("moving", 1000, 1000, 1100, 1100);
+
+		WindowIndex.Edges edges = index.nearestEdges(1000, 1000, 1100, 1100,
+				1 << 20, "moving");
+
+		assertEquals(100, edges.left);
+		assertEquals(100, edges.top);
+		assertEquals(100, edges.right);
+		assertEquals(100, edges.bottom);
+
+		edges = index.nearestEdges(-1000, -1000, 6000, 6000,
+				Integer.MAX_VALUE, null);
+		assertEquals(0, edges.left);
+		assertEquals(0, edges.top);
+		assertEquals(5100, edges.right);
+		assertEquals(5100, edges.bottom);
+	}
+
+	@Test
+	public void nearestEdgesMatchesAScanOfEveryWindow() {
+		Random random = new Random(42);
+		int[][] rectangles = new int[200][];
+		for (int i = 0; i < rectangles.length; i++) {
+			int x = random.nextInt(4000) - 2000;
+			int y = random.nextInt(4000) - 2000;
+			rectangles[i] = new int[] { x, y, x + 1 + random.nextInt(300),
+					y + 1 + random.nextInt(300) };
+			index.put("w" + i, rectangles[i][0], rectangles[i][1],
+					rectangles[i][2], rectangles[i][3]);
+		}
+
+		for (int i = 0; i < 500; i++) {
+			int x = random.nextInt(4000) - 2000;
+			int y = random.nextInt(4000) - 2000;
+			// small distances scan cells, large ones every window
+			int distance = random.nextInt(i % 2 == 0 ? 50 : 5000);
+			int[] query = { x, y, x + 100, y + 100 };
+
+			WindowIndex.Edges edges = index.nearestEdges(query[0], query[1],
+					query[2], query[3], distance, null);
+
+			int[] found = { edges.left, edges.top, edges.right, edges.bottom };
+			int[] expected = nearestDistances(rectangles, query, distance);
+			for (int side = 0; side < 4; side++) {
+				int actual = found[side] == WindowIndex.NO_EDGE ? -1 : Math
+						.abs(found[side] - query[side]);
+				assertEquals(expected[side], actual);
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void cellSizeMustBePositive() {
+		new WindowIndex<String>(0);
+	}
+
+	// the distance from each side of the query to the nearest edge, or -1
+	private static int[] nearestDistances(int[][] rectangles, int[] query,
+			int maxDistance) {
+		int[] nearest = { -1, -1, -1, -1 };
+		for (int[] rectangle : rectangles) {
+			if (rectangle[0] > query[2] + maxDistance
+					|| query[0] - maxDistance > rectangle[2]
+					|| rectangle[1] > query[3] + maxDistance
+					|| query[1] - maxDistance > rectangle[3]) {
+				continue;
+			}
+
+			for (int side = 0; side < 4; side++) {
+				// x sides snap to x edges, y sides to y edges
+				int axis = side % 2;
+				for (int edge = axis; edge < 4; edge += 2) {
+					int distance = Math.abs(rectangle[edge] - query[side]);
+					if (distance <= maxDistance
+							&& (nearest[side] == -1 || distance < nearest[side])) {
+						nearest[side] = distance;
+					}
+				}
+			}
+		}
+		return nearest;
+	}
+}
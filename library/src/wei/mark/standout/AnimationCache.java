@@ -0,0 +1,116 @@
+package wei.mark.standout;
+
+import android.content.Context;
+import android.view.View;
+import android.view.animation.Animation;
+import android.view.animation.AnimationUtils;
+
+/**
+ * Keeps one loaded animation per kind for a {@link StandOutWindow}, so that
+ * the default show, hide and close animations are parsed from XML once
+ * instead of on every transition.
+ *
+ * <p>
+ * An animation can only play on one view at a time. While the cached
+ * animation of a kind is playing, {@link #obtain(int, int)} loads a fresh one
+ * that is not cached. Only touched on the main thread.
+ */
+class AnimationCache {
+	static final int KIND_SHOW = 0;
+	static final int KIND_HIDE = 1;
+	static final int KIND_CLOSE = 2;
+
+	private static class Entry {
+		Animation animation;
+		boolean inUse;
+
+		// the view the animation was started on, once it is started
+		View owner;
+	}
+
+	private final Context mContext;
+	private final Entry[] mEntries;
+
+	AnimationCache(Context context) {
+		mContext = context;
+		mEntries = new Entry[] { new Entry(), new Entry(), new Entry() };
+	}
+
+	/**
+	 * Returns the cached animation of the kind, or a fresh one if the cached
+	 * one is playing.
+	 *
+	 * @param kind
+	 *            {@link #KIND_SHOW}, {@link #KIND_HIDE} or {@link #KIND_CLOSE}.
+	 * @param resId
+	 *            The animation resource to load.
+	 * @return The animation, not yet reset.
+	 */
+	Animation obtain(int kind, int resId) {
+		Entry entry = mEntries[kind];
+		if (entry.inUse) {
+			return AnimationUtils.loadAnimation(mContext, resId);
+		}
+
+		if (entry.animation == null) {
+			entry.animation = AnimationUtils.loadAnimation(mContext, resId);
+		}
+		entry.inUse = true;
+		entry.owner = null;
+		return entry.animation;
+	}
+
+	/**
+	 * Record that the animation is starting on the view.
+	 *
+	 * @param animation
+	 *            The animation, cached or not.
+	 * @param view
+	 *            The view it plays on.
+	 */
+	void onStart(Animation animation, View view) {
+		Entry entry = find(animation);
+		if (entry != null) {
+			entry.owner = view;
+		}
+	}
+
+	/**
+	 * Make the animation available again, if it is cached and still belongs
+	 * to the view. Animations replaced by another on the same view never end,
+	 * so release them when they are replaced.
+	 *
+	 * @param animation
+	 *            The animation, cached or not.
+	 * @param view
+	 *            The view it played on.
+	 */
+	void release(Animation animation, View view) {
+		Entry entry = find(animation);
+		if (entry != null && entry.owner == view) {
+			entry.animation.setAnimationListener(null);
+			entry.inUse = false;
+			entry.owner = null;
+		}
+	}
+
+	/**
+	 * Drop the cached animations that are not playing.
+	 */
+	void trim() {
+		for (Entry entry : mEntries) {
+			if (!entry.inUse) {
+				entry.animation = null;
+			}
+		}
+	}
+
+	private Entry find(Animation animation) {
+		for (Entry entry : mEntries) {
+			if (entry.animation == animation) {
+				return entry;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,70 @@
+package wei.mark.standout;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Values keyed by a class and a small integer code, such as the intent
+ * templates of {@link IntentCodec}. A lookup hashes the class and indexes an
+ * array, so it does not allocate a key.
+ *
+ * <p>
+ * This class does not depend on Android and is safe to use from any thread.
+ *
+ * @param <V>
+ *            The type of the values.
+ */
+final class ClassCodeMap<V> {
+	private final int mCodeCount;
+	private final ConcurrentHashMap<Class<?>, AtomicReferenceArray<V>> mValues;
+
+	/**
+	 * @param codeCount
+	 *            The number of codes. Codes go from 0 to codeCount - 1.
+	 */
+	ClassCodeMap(int codeCount) {
+		mCodeCount = codeCount;
+		mValues = new ConcurrentHashMap<Class<?>, AtomicReferenceArray<V>>();
+	}
+
+	/**
+	 * Returns the value of the class and code.
+	 *
+	 * @param cls
+	 *            The class.
+	 * @param code
+	 *            The code.
+	 * @return The value, or null if there is none.
+	 */
+	V get(Class<?> cls, int code) {
+		AtomicReferenceArray<V> values = mValues.get(cls);
+		return values == null ? null : values.get(code);
+	}
+
+	/**
+	 * Set the value of the class and code, unless it already has one.
+	 *
+	 * @param cls
+	 *            The class.
+	 * @param code
+	 *            The code.
+	 * @param value
+	 *            The value.
+	 * @return The value now kept for the class and code.
+	 */
+	V putIfAbsent(Class<?> cls, int code, V value) {
+		AtomicReferenceArray<V> values = mValues.get(cls);
+		if (values == null) {
+			values = new AtomicReferenceArray<V>(mCodeCount);
+			AtomicReferenceArray<V> existing = mValues.putIfAbsent(cls, values);
+			if (existing != null) {
+				values = existing;
+			}
+		}
+
+		if (values.compareAndSet(code, null, value)) {
+			return value;
+		}
+		return values.get(code);
+	}
+}
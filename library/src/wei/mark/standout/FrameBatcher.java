@@ -0,0 +1,184 @@
+package wei.mark.standout;
+
+/**
+ * Layout updates and frame callbacks waiting for the next frame boundary.
+ * This is the part of {@link FrameScheduler} that does not depend on Android:
+ * the clock and the main thread queue are behind a {@link Timer}.
+ *
+ * <p>
+ * However many updates are scheduled between two frames, one frame callback
+ * is posted, and it applies at most one update per window.
+ *
+ * <p>
+ * This class must only be used from the thread the timer runs callbacks on.
+ *
+ * @param <W>
+ *            The type of the windows.
+ * @param <P>
+ *            The type of the layout params.
+ */
+class FrameBatcher<W, P> {
+	/**
+	 * The clock and the queue the frame callback is posted to.
+	 */
+	interface Timer {
+		long uptimeMillis();
+
+		void postAtTime(Runnable callback, long uptimeMillis);
+
+		void removeCallbacks(Runnable callback);
+	}
+
+	/**
+	 * Runs once per frame while it asks for more frames.
+	 */
+	interface Listener {
+		boolean onFrame(long frameTimeMillis);
+	}
+
+	private final Timer mTimer;
+	private final long mFrameIntervalMillis;
+	private final LayoutBatch<W, P> mBatch;
+	private final LayoutBatch.Applier<W, P> mApplier;
+
+	private boolean mScheduled;
+
+	private Listener mListener;
+	private boolean mFrameRequested;
+
+	private final Runnable mFrameCallback = new Runnable() {
+
+		@Override
+		public void run() {
+			// updates scheduled by the listener join this frame
+			boolean listen = mFrameRequested && mListener != null;
+			mFrameRequested = false;
+			boolean again = listen && mListener.onFrame(mTimer.uptimeMillis());
+
+			mScheduled = false;
+			flush();
+
+			if (again) {
+				requestFrame();
+			}
+		}
+	};
+
+	/**
+	 * @param timer
+	 *            The clock and queue of the thread the updates run on.
+	 * @param frameIntervalMillis
+	 *            The interval between two frames, at least 1.
+	 * @param applier
+	 *            Applies each update.
+	 */
+	FrameBatcher(Timer timer, long frameIntervalMillis,
+			LayoutBatch.Applier<W, P> applier) {
+		if (frameIntervalMillis < 1) {
+			throw new IllegalArgumentException(
+					"Frame interval must be positive.");
+		}
+		mTimer = timer;
+		mFrameIntervalMillis = frameIntervalMillis;
+		mBatch = new LayoutBatch<W, P>();
+		mApplier = applier;
+	}
+
+	/**
+	 * Set the update of the window for the next frame, replacing an earlier
+	 * one in this frame.
+	 *
+	 * @param window
+	 *            The window.
+	 * @param params
+	 *            The layout params to apply.
+	 */
+	void schedule(W window, P params) {
+		mBatch.put(window, params);
+		scheduleFrame();
+	}
+
+	/**
+	 * Set the listener called by {@link #requestFrame()}.
+	 *
+	 * @param listener
+	 *            The listener, or null.
+	 */
+	void setListener(Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Call the listener on the next frame.
+	 */
+	void requestFrame() {
+		mFrameRequested = true;
+		scheduleFrame();
+	}
+
+	/**
+	 * Drop the update of the window, if any.
+	 *
+	 * @param window
+	 *            The window.
+	 */
+	void cancel(W window) {
+		mBatch.remove(window);
+	}
+
+	/**
+	 * Drop all updates and stop waiting for the next frame.
+	 */
+	void cancelAll() {
+		mBatch.clear();
+		mTimer.removeCallbacks(mFrameCallback);
+		mScheduled = false;
+		mFrameRequested = false;
+	}
+
+	/**
+	 * Returns whether the window has an update waiting for the next frame.
+	 *
+	 * @param window
+	 *            The window.
+	 * @return True if an update is waiting.
+	 */
+	boolean isPending(W window) {
+		return mBatch.contains(window);
+	}
+
+	/**
+	 * Immediately apply all waiting updates.
+	 *
+	 * @return The number of updates applied.
+	 */
+	int flush() {
+		return mBatch.flush(mApplier);
+	}
+
+	/**
+	 * Returns the uptime of the next frame boundary.
+	 *
+	 * @return The uptime in milliseconds.
+	 */
+	long getNextFrameTime() {
+		long now = mTimer.uptimeMillis();
+		return (now / mFrameIntervalMillis + 1) * mFrameIntervalMillis;
+	}
+
+	/**
+	 * Returns the interval between two frames.
+	 *
+	 * @return The interval in milliseconds.
+	 */
+	long getFrameIntervalMillis() {
+		return mFrameIntervalMillis;
+	}
+
+	private void scheduleFrame() {
+		if (!mScheduled) {
+			mScheduled = true;
+			mTimer.postAtTime(mFrameCallback, getNextFrameTime());
+		}
+	}
+}
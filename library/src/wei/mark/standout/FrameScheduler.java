@@ -0,0 +1,200 @@
+package wei.mark.standout;
+
+import wei.mark.standout.StandOutWindow.StandOutLayoutParams;
+import wei.mark.standout.ui.Window;
+import android.os.Handler;
+import android.os.SystemClock;
+
+/**
+ * Coalesces layout updates of the windows of a {@link StandOutWindow} so that
+ * each window is updated by the window manager at most once per display
+ * frame.
+ *
+ * <p>
+ * Callers mark a window dirty with {@link #scheduleLayout(int, StandOutLayoutParams)}.
+ * The pending updates are flushed together on the next frame boundary, which
+ * is derived from the refresh rate of the display. Updates are kept per
+ * window instance, so an update is never applied to a newer window that took
+ * the id of a closed one.
+ *
+ * <p>
+ * A {@link FrameListener} can run on every frame, right before the pending
+ * updates are flushed. Updates it schedules are applied in the same frame.
+ *
+ * <p>
+ * This class must only be used from the main thread.
+ */
+public class FrameScheduler {
+	static final String TAG = "FrameScheduler";
+
+	/**
+	 * Frame interval used when the display does not report a refresh rate.
+	 */
+	static final long DEFAULT_FRAME_INTERVAL_MILLIS = 16;
+
+	/**
+	 * Runs once per frame while it asks for more frames.
+	 */
+	public interface FrameListener {
+		/**
+		 * Called on a frame, before the pending updates are flushed.
+		 * 
+		 * @param frameTimeMillis
+		 *            The uptime of the frame.
+		 * @return True to be called on the next frame too.
+		 */
+		boolean onFrame(long frameTimeMillis);
+	}
+
+	private final StandOutWindow mContext;
+
+	// the updates, waiting for the next frame on the main thread
+	private final FrameBatcher<Window, StandOutLayoutParams> mBatcher;
+
+	/**
+	 * @param context
+	 *            The service owning the windows.
+	 * @param refreshRate
+	 *            The refresh rate of the display, in frames per second.
+	 */
+	public FrameScheduler(StandOutWindow context, float refreshRate) {
+		mContext = context;
+
+		final Handler handler = new Handler();
+		FrameBatcher.Timer timer = new FrameBatcher.Timer() {
+
+			@Override
+			public long uptimeMillis() {
+				return SystemClock.uptimeMillis();
+			}
+
+			@Override
+			public void postAtTime(Runnable callback, long uptimeMillis) {
+				handler.postAtTime(callback, uptimeMillis);
+			}
+
+			@Override
+			public void removeCallbacks(Runnable callback) {
+				handler.removeCallbacks(callback);
+			}
+		};
+
+		long frameIntervalMillis = refreshRate > 0 ? Math.max(1,
+				(long) (1000 / refreshRate)) : DEFAULT_FRAME_INTERVAL_MILLIS;
+		mBatcher = new FrameBatcher<Window, StandOutLayoutParams>(timer,
+				frameIntervalMillis,
+				new LayoutBatch.Applier<Window, StandOutLayoutParams>() {
+
+					@Override
+					public void apply(Window window,
+							StandOutLayoutParams params) {
+						// the window may have been closed since it was
+						// scheduled
+						if (mContext.getWindow(window.id) == window) {
+							mContext.updateViewLayout(window.id, params);
+						}
+					}
+				});
+	}
+
+	/**
+	 * Mark the window corresponding to the id dirty. The window will be updated
+	 * with the given params on the next frame. Later calls for the same id
+	 * within the same frame replace the earlier params. Ignored if there is no
+	 * window with the id.
+	 *
+	 * @param id
+	 *            The id of the window.
+	 * @param params
+	 *            The layout params to apply.
+	 */
+	public void scheduleLayout(int id, StandOutLayoutParams params) {
+		Window window = mContext.getWindow(id);
+		if (window == null) {
+			return;
+		}
+		mBatcher.schedule(window, params);
+	}
+
+	/**
+	 * Set the listener called by {@link #requestFrame()}.
+	 * 
+	 * @param listener
+	 *            The listener, or null.
+	 */
+	public void setFrameListener(final FrameListener listener) {
+		mBatcher.setListener(listener == null ? null
+				: new FrameBatcher.Listener() {
+
+					@Override
+					public boolean onFrame(long frameTimeMillis) {
+						return listener.onFrame(frameTimeMillis);
+					}
+				});
+	}
+
+	/**
+	 * Call the frame listener on the next frame.
+	 */
+	public void requestFrame() {
+		mBatcher.requestFrame();
+	}
+
+	/**
+	 * Drop the pending update of the window corresponding to the id, if any.
+	 *
+	 * @param id
+	 *            The id of the window.
+	 */
+	public void cancel(int id) {
+		Window window = mContext.getWindow(id);
+		if (window != null) {
+			mBatcher.cancel(window);
+		}
+	}
+
+	/**
+	 * Drop all pending updates and stop waiting for the next frame.
+	 */
+	public void cancelAll() {
+		mBatcher.cancelAll();
+	}
+
+	/**
+	 * Returns whether the window corresponding to the id has an update waiting
+	 * for the next frame.
+	 *
+	 * @param id
+	 *            The id of the window.
+	 * @return True if an update is pending.
+	 */
+	public boolean isPending(int id) {
+		Window window = mContext.getWindow(id);
+		return window != null && mBatcher.isPending(window);
+	}
+
+	/**
+	 * Immediately apply all pending updates.
+	 */
+	public void flush() {
+		mBatcher.flush();
+	}
+
+	/**
+	 * Returns the uptime of the next frame boundary.
+	 *
+	 * @return The uptime in milliseconds.
+	 */
+	long getNextFrameTime() {
+		return mBatcher.getNextFrameTime();
+	}
+
+	/**
+	 * Returns the interval between two frames.
+	 *
+	 * @return The interval in milliseconds.
+	 */
+	public long getFrameIntervalMillis() {
+		return mBatcher.getFrameIntervalMillis();
+	}
+}
@@ -0,0 +1,159 @@
+package wei.mark.standout;
+
+import java.util.BitSet;
+
+/**
+ * Hands out window ids for one {@link StandOutWindow} class in O(1) amortized
+ * time, reusing ids that were released.
+ *
+ * <p>
+ * Ids in use are tracked in a bitset. Released ids are kept on a free list and
+ * handed out again, most recently released first. An id is on the free list at
+ * most once, and leaves it when it is used again, so the list never holds more
+ * than the ids that are actually free. Once the free list is empty,
+ * ids are handed out in increasing order, starting at
+ * {@link StandOutWindow#DEFAULT_ID}.
+ *
+ * <p>
+ * Ids below {@link StandOutWindow#DEFAULT_ID}, such as
+ * {@link StandOutWindow#DISREGARD_ID} and
+ * {@link StandOutWindow#ONGOING_NOTIFICATION_ID}, are never handed out.
+ * Other ids can be kept from being handed out with {@link #reserve(int)}.
+ */
+public class IdAllocator {
+	private final BitSet mUsed;
+	private final BitSet mReserved;
+
+	// released ids, most recently released last, and the same ids as a set
+	private int[] mFree;
+	private int mFreeCount;
+	private final BitSet mFreeSet;
+
+	// no id at or above this one has been handed out or released
+	private int mNext;
+
+	public IdAllocator() {
+		mUsed = new BitSet();
+		mReserved = new BitSet();
+		mFreeSet = new BitSet();
+		mFree = new int[8];
+		mFreeCount = 0;
+		mNext = StandOutWindow.DEFAULT_ID;
+	}
+
+	/**
+	 * Keep the id from ever being handed out. Ids below
+	 * {@link StandOutWindow#DEFAULT_ID} are always reserved.
+	 *
+	 * @param id
+	 *            The id to reserve.
+	 */
+	public void reserve(int id) {
+		if (id >= StandOutWindow.DEFAULT_ID) {
+			mReserved.set(id);
+			use(id);
+		}
+	}
+
+	/**
+	 * Returns whether the id is reserved.
+	 *
+	 * @param id
+	 *            The id.
+	 * @return True if the id is never handed out.
+	 */
+	public boolean isReserved(int id) {
+		return id < StandOutWindow.DEFAULT_ID || mReserved.get(id);
+	}
+
+	/**
+	 * Mark the id as in use.
+	 *
+	 * @param id
+	 *            The id of a window that now exists.
+	 */
+	public void use(int id) {
+		if (id >= StandOutWindow.DEFAULT_ID) {
+			mUsed.set(id);
+			if (mFreeSet.get(id)) {
+				removeFree(id);
+			}
+		}
+	}
+
+	/**
+	 * Mark the id as no longer in use, so that it can be handed out again.
+	 *
+	 * @param id
+	 *            The id of a window that no longer exists.
+	 */
+	public void release(int id) {
+		if (id < StandOutWindow.DEFAULT_ID || mReserved.get(id)
+				|| !mUsed.get(id)) {
+			return;
+		}
+
+		mUsed.clear(id);
+
+		// ids at or above mNext are found without the free list
+		if (id < mNext && !mFreeSet.get(id)) {
+			if (mFreeCount == mFree.length) {
+				int[] free = new int[mFree.length * 2];
+				System.arraycopy(mFree, 0, free, 0, mFreeCount);
+				mFree = free;
+			}
+			mFree[mFreeCount++] = id;
+			mFreeSet.set(id);
+		}
+	}
+
+	/**
+	 * Returns whether the id is in use or reserved.
+	 *
+	 * @param id
+	 *            The id.
+	 * @return True if the id will not be handed out.
+	 */
+	public boolean isUsed(int id) {
+		return id < StandOutWindow.DEFAULT_ID || mUsed.get(id);
+	}
+
+	/**
+	 * Returns the id that {@link #allocate()} would hand out, without marking
+	 * it as in use.
+	 *
+	 * @return A free id.
+	 */
+	public int peek() {
+		if (mFreeCount > 0) {
+			return mFree[mFreeCount - 1];
+		}
+
+		mNext = mUsed.nextClearBit(mNext);
+		return mNext;
+	}
+
+	/**
+	 * Hand out a free id and mark it as in use.
+	 *
+	 * @return The id.
+	 */
+	public int allocate() {
+		int id = peek();
+		use(id);
+		return id;
+	}
+
+	// take the id off the free list. it is usually the last one, since ids are
+	// used right after they are peeked
+	private void removeFree(int id) {
+		mFreeSet.clear(id);
+		for (int i = mFreeCount - 1; i >= 0; i--) {
+			if (mFree[i] == id) {
+				System.arraycopy(mFree, i + 1, mFree, i, mFreeCount - i - 1);
+				mFreeCount--;
+				return;
+			}
+		}
+	}
+}
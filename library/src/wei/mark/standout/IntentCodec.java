@@ -0,0 +1,188 @@
+package wei.mark.standout;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Builds and reads the intents sent to a {@link StandOutWindow}.
+ *
+ * <p>
+ * Every intent carries an integer action code next to its string action, so
+ * that the service can switch on the code instead of comparing strings.
+ * Intents are copied from a template built once per class and action, and
+ * looked up without building a key. The
+ * class of a sender travels as its name instead of a serialized
+ * {@link Class}, and is resolved through a cache.
+ *
+ * <p>
+ * Intents without an action code, such as pending intents created by an
+ * earlier version, are still understood.
+ */
+final class IntentCodec {
+	static final int CODE_NONE = 0;
+	static final int CODE_SHOW = 1;
+	static final int CODE_RESTORE = 2;
+	static final int CODE_HIDE = 3;
+	static final int CODE_CLOSE = 4;
+	static final int CODE_CLOSE_ALL = 5;
+	static final int CODE_SEND_DATA = 6;
+	static final int CODE_SHOW_MANY = 7;
+	static final int CODE_HIDE_MANY = 8;
+	static final int CODE_CLOSE_MANY = 9;
+	static final int CODE_SEND_PARKED_DATA = 10;
+	static final int CODE_BROADCAST_DATA = 11;
+
+	// string actions, indexed by code
+	private static final String[] ACTIONS = { null,
+			StandOutWindow.ACTION_SHOW, StandOutWindow.ACTION_RESTORE,
+			StandOutWindow.ACTION_HIDE, StandOutWindow.ACTION_CLOSE,
+			StandOutWindow.ACTION_CLOSE_ALL, StandOutWindow.ACTION_SEND_DATA,
+			StandOutWindow.ACTION_SHOW_MANY, StandOutWindow.ACTION_HIDE_MANY,
+			StandOutWindow.ACTION_CLOSE_MANY,
+			StandOutWindow.ACTION_SEND_PARKED_DATA,
+			StandOutWindow.ACTION_BROADCAST_DATA };
+
+	static final String EXTRA_ACTION_CODE = "wei.mark.standout.actionCode";
+	static final String EXTRA_FROM_CLASS_NAME = "wei.mark.standout.fromClsName";
+
+	// the extra written before class names were used
+	static final String EXTRA_FROM_CLASS = "wei.mark.standout.fromCls";
+
+	private static final ClassCodeMap<Intent> sTemplates;
+	private static final ConcurrentHashMap<Class<?>, String> sUriPrefixes;
+	private static final ConcurrentHashMap<String, Class<? extends StandOutWindow>> sClasses;
+
+	static {
+		sTemplates = new ClassCodeMap<Intent>(ACTIONS.length);
+		sUriPrefixes = new ConcurrentHashMap<Class<?>, String>();
+		sClasses = new ConcurrentHashMap<String, Class<? extends StandOutWindow>>();
+	}
+
+	private IntentCodec() {
+	}
+
+	/**
+	 * Returns a new intent for the action, copied from the cached template of
+	 * the class and action.
+	 *
+	 * @param context
+	 *            A Context of the application package.
+	 * @param cls
+	 *            The Service extending {@link StandOutWindow} the intent is
+	 *            for.
+	 * @param code
+	 *            The action code.
+	 * @return The intent, ready for extras.
+	 */
+	static Intent newIntent(Context context,
+			Class<? extends StandOutWindow> cls, int code) {
+		Intent template = sTemplates.get(cls, code);
+		if (template == null) {
+			template = sTemplates.putIfAbsent(cls, code, new Intent(context,
+					cls).setAction(ACTIONS[code]).putExtra(EXTRA_ACTION_CODE,
+					code));
+		}
+		return new Intent(template);
+	}
+
+	/**
+	 * Returns the action code of the intent.
+	 *
+	 * @param intent
+	 *            The intent received by the service.
+	 * @return The action code, or {@link #CODE_NONE} if the action is unknown.
+	 */
+	static int getActionCode(Intent intent) {
+		int code = intent.getIntExtra(EXTRA_ACTION_CODE, CODE_NONE);
+		if (code != CODE_NONE) {
+			return code;
+		}
+
+		// intents built before action codes existed
+		String action = intent.getAction();
+		if (action != null) {
+			for (int i = 1; i < ACTIONS.length; i++) {
+				if (ACTIONS[i].equals(action)) {
+					return i;
+				}
+			}
+		}
+		return CODE_NONE;
+	}
+
+	/**
+	 * Returns a URI that makes the intent for the window distinct, so that
+	 * pending intents for different windows are not merged.
+	 *
+	 * @param cls
+	 *            The Service extending {@link StandOutWindow}.
+	 * @param id
+	 *            The id of the window.
+	 * @return The URI.
+	 */
+	static Uri getWindowUri(Class<? extends StandOutWindow> cls, int id) {
+		String prefix = sUriPrefixes.get(cls);
+		if (prefix == null) {
+			prefix = "standout://" + cls + '/';
+			sUriPrefixes.putIfAbsent(cls, prefix);
+		}
+		return Uri.parse(prefix + id);
+	}
+
+	/**
+	 * Put the class of the sender in the intent.
+	 *
+	 * @param intent
+	 *            The intent.
+	 * @param cls
+	 *            The class of the sending window, or null.
+	 */
+	static void putFromClass(Intent intent, Class<? extends StandOutWindow> cls) {
+		if (cls != null) {
+			intent.putExtra(EXTRA_FROM_CLASS_NAME, cls.getName());
+		}
+	}
+
+	/**
+	 * Returns the class of the sender in the intent.
+	 *
+	 * @param context
+	 *            A Context of the application package, whose class loader
+	 *            finds the class.
+	 * @param intent
+	 *            The intent.
+	 * @return The class of the sending window, or null if there is none or it
+	 *         cannot be found.
+	 */
+	@SuppressWarnings("unchecked")
+	static Class<? extends StandOutWindow> getFromClass(Context context,
+			Intent intent) {
+		String name = intent.getStringExtra(EXTRA_FROM_CLASS_NAME);
+		if (name == null) {
+			// intents built before class names were used
+			return (Class<? extends StandOutWindow>) intent
+					.getSerializableExtra(EXTRA_FROM_CLASS);
+		}
+
+		Class<? extends StandOutWindow> cls = sClasses.get(name);
+		if (cls == null) {
+			try {
+				cls = Class.forName(name, false, context.getClassLoader())
+						.asSubclass(StandOutWindow.class);
+			} catch (ClassNotFoundException ex) {
+				Log.w(StandOutWindow.TAG, "Unknown sender class " + name + ".");
+				return null;
+			} catch (ClassCastException ex) {
+				Log.w(StandOutWindow.TAG, "Sender class " + name
+						+ " is not a StandOutWindow.");
+				return null;
+			}
+			sClasses.putIfAbsent(name, cls);
+		}
+		return cls;
+	}
+}
@@ -0,0 +1,111 @@
+package wei.mark.standout;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Layout updates waiting for the next frame, at most one per window. This is
+ * the part of {@link FrameScheduler} that does not depend on Android.
+ *
+ * <p>
+ * Updates are keyed by the window instance, not by its id, so an update
+ * scheduled for a window is never applied to another window that later takes
+ * the same id.
+ *
+ * @param <W>
+ *            The type of the windows.
+ * @param <P>
+ *            The type of the layout params.
+ */
+class LayoutBatch<W, P> {
+	/**
+	 * Applies one update.
+	 */
+	interface Applier<W, P> {
+		void apply(W window, P params);
+	}
+
+	// updates waiting for the next frame, and the buffer being flushed
+	private LinkedHashMap<W, P> mPending;
+	private LinkedHashMap<W, P> mFlushing;
+
+	LayoutBatch() {
+		mPending = new LinkedHashMap<W, P>();
+		mFlushing = new LinkedHashMap<W, P>();
+	}
+
+	/**
+	 * Set the update of the window, replacing an earlier one in this batch.
+	 *
+	 * @param window
+	 *            The window.
+	 * @param params
+	 *            The layout params to apply.
+	 */
+	void put(W window, P params) {
+		mPending.put(window, params);
+	}
+
+	/**
+	 * Drop the update of the window, if any.
+	 *
+	 * @param window
+	 *            The window.
+	 */
+	void remove(W window) {
+		mPending.remove(window);
+	}
+
+	/**
+	 * Returns whether the window has an update waiting.
+	 *
+	 * @param window
+	 *            The window.
+	 * @return True if an update is waiting.
+	 */
+	boolean contains(W window) {
+		return mPending.containsKey(window);
+	}
+
+	/**
+	 * Returns the number of windows with an update waiting.
+	 *
+	 * @return The number of windows.
+	 */
+	int size() {
+		return mPending.size();
+	}
+
+	/**
+	 * Drop all updates.
+	 */
+	void clear() {
+		mPending.clear();
+	}
+
+	/**
+	 * Apply all waiting updates, in the order the windows were first
+	 * scheduled. Updates put while flushing wait for the next flush.
+	 *
+	 * @param applier
+	 *            Applies each update.
+	 * @return The number of updates applied.
+	 */
+	int flush(Applier<W, P> applier) {
+		// swap buffers so that updates scheduled while flushing wait for the
+		// next frame
+		LinkedHashMap<W, P> flushing = mPending;
+		mPending = mFlushing;
+		mFlushing = flushing;
+
+		int count = flushing.size();
+		try {
+			for (Map.Entry<W, P> entry : flushing.entrySet()) {
+				applier.apply(entry.getKey(), entry.getValue());
+			}
+		} finally {
+			flushing.clear();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,341 @@
+package wei.mark.standout;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+import android.util.Log;
+
+/**
+ * Data sent to one window of a {@link StandOutWindow} in the same process,
+ * waiting to be delivered on the main thread.
+ *
+ * <p>
+ * The mailbox holds at most {@link #getCapacity()} messages. When it is full,
+ * the overflow policy decides what happens to a new message. Messages with a
+ * coalesced request code replace the data of a message with the same request
+ * code that is still waiting, so only the latest value is delivered.
+ *
+ * <p>
+ * A request whose message is dropped, rejected or replaced fails with a
+ * {@link RejectedExecutionException}, so its sender does not wait for a reply
+ * that cannot come.
+ *
+ * <p>
+ * Producers may send from any thread. Messages are taken on the main thread.
+ *
+ * @see StandOutWindow#getMailboxCapacity(int)
+ * @see StandOutWindow#getMailboxOverflowPolicy(int)
+ * @see StandOutWindow#isDataCoalesced(int, int)
+ */
+public class Mailbox {
+	static final String TAG = "Mailbox";
+
+	/**
+	 * The capacity of a mailbox unless
+	 * {@link StandOutWindow#getMailboxCapacity(int)} is implemented. A mailbox
+	 * of this capacity is unbounded, so no data is lost.
+	 */
+	public static final int DEFAULT_CAPACITY = Integer.MAX_VALUE;
+
+	/**
+	 * Overflow policy: Drop the oldest waiting message to make room.
+	 */
+	public static final int OVERFLOW_DROP_OLDEST = 0;
+
+	/**
+	 * Overflow policy: Drop the new message.
+	 */
+	public static final int OVERFLOW_DROP_NEWEST = 1;
+
+	/**
+	 * Overflow policy: Block the sender until there is room. A sender on the
+	 * main thread, which empties the mailbox, fails instead.
+	 */
+	public static final int OVERFLOW_BLOCK = 2;
+
+	/**
+	 * Overflow policy: Throw an {@link IllegalStateException} to the sender.
+	 */
+	public static final int OVERFLOW_FAIL = 3;
+
+	static class Message {
+		final int requestCode;
+		final boolean coalesced;
+		Object data;
+		Class<? extends StandOutWindow> fromCls;
+		int fromId;
+
+		Message(int requestCode, boolean coalesced, Object data,
+				Class<? extends StandOutWindow> fromCls, int fromId) {
+			this.requestCode = requestCode;
+			this.coalesced = coalesced;
+			this.data = data;
+			this.fromCls = fromCls;
+			this.fromId = fromId;
+		}
+	}
+
+	private final int mId;
+	private final int mCapacity;
+	private final int mOverflowPolicy;
+
+	private final LinkedList<Message> mMessages;
+
+	// waiting coalesced messages, by request code
+	private final Map<Integer, Message> mCoalesced;
+
+	// whether a delivery is posted to the main thread
+	private boolean mScheduled;
+
+	// metrics
+	private int mPeakDepth;
+	private long mReceivedCount;
+	private long mDeliveredCount;
+	private long mDroppedCount;
+	private long mCoalescedCount;
+
+	/**
+	 * @param id
+	 *            The id of the receiving window.
+	 * @param capacity
+	 *            The maximum number of waiting messages.
+	 * @param overflowPolicy
+	 *            One of {@link #OVERFLOW_DROP_OLDEST},
+	 *            {@link #OVERFLOW_DROP_NEWEST}, {@link #OVERFLOW_BLOCK} or
+	 *            {@link #OVERFLOW_FAIL}.
+	 */
+	public Mailbox(int id, int capacity, int overflowPolicy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException(
+					"Mailbox capacity must be at least 1.");
+		}
+
+		mId = id;
+		mCapacity = capacity;
+		mOverflowPolicy = overflowPolicy;
+		mMessages = new LinkedList<Message>();
+		mCoalesced = new HashMap<Integer, Message>();
+	}
+
+	/**
+	 * Add a message.
+	 *
+	 * @param message
+	 *            The message.
+	 * @return True if the caller must post a delivery to the main thread.
+	 * @throws IllegalStateException
+	 *             If the mailbox is full and the policy is
+	 *             {@link #OVERFLOW_FAIL}, or {@link #OVERFLOW_BLOCK} on the
+	 *             main thread.
+	 */
+	synchronized boolean offer(Message message) {
+		mReceivedCount++;
+
+		// replace the data of a waiting message, keeping its place
+		if (message.coalesced) {
+			Message waiting = mCoalesced.get(message.requestCode);
+			if (waiting != null) {
+				reject(waiting.data, "Request to window " + mId
+						+ " was replaced by newer data.");
+				waiting.data = message.data;
+				waiting.fromCls = message.fromCls;
+				waiting.fromId = message.fromId;
+				mCoalescedCount++;
+				return false;
+			}
+		}
+
+		if (mMessages.size() >= mCapacity) {
+			switch (mOverflowPolicy) {
+				case OVERFLOW_DROP_OLDEST:
+					Message oldest = mMessages.getFirst();
+					remove(oldest);
+					mDroppedCount++;
+					reject(oldest.data, "Request to window " + mId
+							+ " was dropped from a full mailbox.");
+					break;
+				case OVERFLOW_DROP_NEWEST:
+					mDroppedCount++;
+					reject(message.data, "Request to window " + mId
+							+ " was rejected by a full mailbox.");
+					return false;
+				case OVERFLOW_BLOCK:
+					if (!StandOutWindow.isMainThread()) {
+						boolean interrupted = false;
+						while (mMessages.size() >= mCapacity) {
+							try {
+								wait();
+							} catch (InterruptedException ex) {
+								interrupted = true;
+							}
+						}
+						if (interrupted) {
+							Thread.currentThread().interrupt();
+						}
+						break;
+					}
+					// the main thread would wait for itself
+				case OVERFLOW_FAIL:
+				default:
+					mDroppedCount++;
+					reject(message.data, "Request to window " + mId
+							+ " was rejected by a full mailbox.");
+					throw new IllegalStateException("Mailbox of window "
+							+ mId + " is full.");
+			}
+		}
+
+		mMessages.addLast(message);
+		if (message.coalesced) {
+			mCoalesced.put(message.requestCode, message);
+		}
+		if (mMessages.size() > mPeakDepth) {
+			mPeakDepth = mMessages.size();
+		}
+
+		if (mScheduled) {
+			return false;
+		}
+		mScheduled = true;
+		return true;
+	}
+
+	/**
+	 * Take the oldest message.
+	 *
+	 * @return The message, or null if the mailbox is empty.
+	 */
+	synchronized Message poll() {
+		if (mMessages.isEmpty()) {
+			return null;
+		}
+
+		Message message = mMessages.getFirst();
+		remove(message);
+		mDeliveredCount++;
+		return message;
+	}
+
+	/**
+	 * Call after a delivery took messages.
+	 *
+	 * @return True if more messages arrived and the caller must post another
+	 *         delivery.
+	 */
+	synchronized boolean finishDelivery() {
+		mScheduled = !mMessages.isEmpty();
+		return mScheduled;
+	}
+
+	// fail a request that will never be delivered
+	private static void reject(Object data, String reason) {
+		Log.w(TAG, reason);
+		if (data instanceof Reply) {
+			((Reply) data).fail(new RejectedExecutionException(reason));
+		}
+	}
+
+	private void remove(Message message) {
+		mMessages.remove(message);
+		if (message.coalesced) {
+			mCoalesced.remove(message.requestCode);
+		}
+
+		// make room for a blocked sender
+		notifyAll();
+	}
+
+	/**
+	 * Returns whether no message is waiting and no delivery is posted.
+	 *
+	 * @return True if the mailbox is idle.
+	 */
+	synchronized boolean isIdle() {
+		return mMessages.isEmpty() && !mScheduled;
+	}
+
+	/**
+	 * Returns the id of the receiving window.
+	 *
+	 * @return The id.
+	 */
+	public int getId() {
+		return mId;
+	}
+
+	/**
+	 * Returns the maximum number of waiting messages.
+	 *
+	 * @return The capacity.
+	 */
+	public int getCapacity() {
+		return mCapacity;
+	}
+
+	/**
+	 * Returns the number of messages waiting to be delivered.
+	 *
+	 * @return The queue depth.
+	 */
+	public synchronized int getDepth() {
+		return mMessages.size();
+	}
+
+	/**
+	 * Returns the largest number of messages that waited at the same time.
+	 *
+	 * @return The peak queue depth.
+	 */
+	public synchronized int getPeakDepth() {
+		return mPeakDepth;
+	}
+
+	/**
+	 * Returns the number of messages sent to this mailbox.
+	 *
+	 * @return The number of messages received.
+	 */
+	public synchronized long getReceivedCount() {
+		return mReceivedCount;
+	}
+
+	/**
+	 * Returns the number of messages delivered to the window.
+	 *
+	 * @return The number of messages delivered.
+	 */
+	public synchronized long getDeliveredCount() {
+		return mDeliveredCount;
+	}
+
+	/**
+	 * Returns the number of messages dropped or rejected because the mailbox
+	 * was full.
+	 *
+	 * @return The number of messages dropped.
+	 */
+	public synchronized long getDroppedCount() {
+		return mDroppedCount;
+	}
+
+	/**
+	 * Returns the number of messages whose data replaced the data of a waiting
+	 * message.
+	 *
+	 * @return The number of messages coalesced.
+	 */
+	public synchronized long getCoalescedCount() {
+		return mCoalescedCount;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "Mailbox { id=" + mId + ", depth=" + mMessages.size() + "/"
+				+ mCapacity + ", peak=" + mPeakDepth + ", received="
+				+ mReceivedCount + ", delivered=" + mDeliveredCount
+				+ ", dropped=" + mDroppedCount + ", coalesced="
+				+ mCoalescedCount + " }";
+	}
+}
@@ -0,0 +1,370 @@
+package wei.mark.standout;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * Posts the notifications of a {@link StandOutWindow} from a background
+ * thread, so that showing and hiding windows does not wait for the
+ * notification service.
+ *
+ * <p>
+ * The notifications are built on the main thread, where the implementation
+ * expects its callbacks, and only handed to the {@link NotificationManager}
+ * in the background. Updates of the persistent notification are debounced: a
+ * burst of shown windows results in one update, built for the last window.
+ * Hidden notifications are posted and cancelled in the order they were
+ * requested. If the service shows a summary of hidden windows instead, the
+ * summary is debounced the same way.
+ *
+ * <p>
+ * The first persistent notification is not posted here, because the service
+ * must enter the foreground right away. This class must only be used from
+ * the main thread.
+ */
+class NotificationPoster {
+	// how long a burst of updates may last before the persistent
+	// notification is updated
+	static final long DEBOUNCE_MILLIS = 100;
+
+	static final int KIND_PERSISTENT = 0;
+	static final int KIND_HIDDEN = 1;
+
+	private static class CachedPendingIntent {
+		final String uri;
+		final PendingIntent pendingIntent;
+
+		CachedPendingIntent(String uri, PendingIntent pendingIntent) {
+			this.uri = uri;
+			this.pendingIntent = pendingIntent;
+		}
+	}
+
+	private final StandOutWindow mService;
+	private final NotificationManager mNotificationManager;
+	private final int mNotificationIdBase;
+
+	// notifications are built on the main thread and posted from the
+	// background thread
+	private final Handler mMainHandler;
+	private final HandlerThread mThread;
+	private final Handler mHandler;
+
+	// read by the background thread before posting the persistent
+	// notification
+	private final Object mLock = new Object();
+	private boolean mForeground;
+
+	// the rest is only touched on the main thread
+	private boolean mPersistentScheduled;
+	private int mPersistentId;
+
+	// hidden windows in the summary, the last hidden last
+	private final boolean mSummaryEnabled;
+	private final LinkedList<Integer> mHiddenIds;
+	private boolean mSummaryScheduled;
+
+	// pending intents, by id and kind
+	private final HashMap<Long, CachedPendingIntent> mPendingIntents;
+
+	private final Runnable mUpdatePersistent = new Runnable() {
+
+		@Override
+		public void run() {
+			mPersistentScheduled = false;
+			if (!isForeground()) {
+				return;
+			}
+
+			Notification notification = mService
+					.getPersistentNotification(mPersistentId);
+			if (notification == null) {
+				return;
+			}
+			notification.flags = notification.flags
+					| Notification.FLAG_NO_CLEAR;
+			post(StandOutWindow.ONGOING_NOTIFICATION_ID, notification, true);
+		}
+	};
+
+	private final Runnable mUpdateSummary = new Runnable() {
+
+		@Override
+		public void run() {
+			mSummaryScheduled = false;
+
+			int[] ids = new int[mHiddenIds.size()];
+			int i = 0;
+			for (Integer id : mHiddenIds) {
+				ids[i++] = id;
+			}
+
+			Notification notification = ids.length == 0 ? null : mService
+					.getHiddenSummaryNotification(ids);
+			if (notification == null) {
+				cancel(StandOutWindow.HIDDEN_SUMMARY_NOTIFICATION_ID);
+				return;
+			}
+
+			notification.flags = notification.flags
+					| Notification.FLAG_NO_CLEAR;
+			post(StandOutWindow.HIDDEN_SUMMARY_NOTIFICATION_ID, notification,
+					false);
+		}
+	};
+
+	NotificationPoster(StandOutWindow service,
+			NotificationManager notificationManager) {
+		mService = service;
+		mNotificationManager = notificationManager;
+		mNotificationIdBase = service.getClass().hashCode();
+		mPendingIntents = new HashMap<Long, CachedPendingIntent>();
+		mSummaryEnabled = service.isHiddenSummaryEnabled();
+		mHiddenIds = new LinkedList<Integer>();
+		mMainHandler = service.mHandler;
+
+		mThread = new HandlerThread("StandOutNotifications");
+		mThread.start();
+		mHandler = new Handler(mThread.getLooper());
+	}
+
+	/**
+	 * Record whether the service is in the foreground. While it is not,
+	 * persistent notification updates are dropped, including those already
+	 * handed to the background thread.
+	 *
+	 * @param foreground
+	 *            True right after startForeground(), false right before
+	 *            stopForeground().
+	 */
+	void setForeground(boolean foreground) {
+		synchronized (mLock) {
+			mForeground = foreground;
+		}
+
+		if (!foreground && mPersistentScheduled) {
+			mMainHandler.removeCallbacks(mUpdatePersistent);
+			mPersistentScheduled = false;
+		}
+	}
+
+	private boolean isForeground() {
+		synchronized (mLock) {
+			return mForeground;
+		}
+	}
+
+	/**
+	 * Update the persistent notification for the window once the current
+	 * burst of updates is over.
+	 *
+	 * @param id
+	 *            The id of the window that was just shown.
+	 */
+	void updatePersistent(int id) {
+		mPersistentId = id;
+		if (!mPersistentScheduled) {
+			mPersistentScheduled = true;
+			mMainHandler.postDelayed(mUpdatePersistent, DEBOUNCE_MILLIS);
+		}
+	}
+
+	/**
+	 * Post the hidden notification of the window. In summary mode, add the
+	 * window to the summary instead.
+	 *
+	 * @param id
+	 *            The id of the window that was just hidden.
+	 * @return False if the implementation has no hidden notification for the
+	 *         window, which should then be closed.
+	 */
+	boolean postHidden(int id) {
+		if (mSummaryEnabled) {
+			mHiddenIds.remove(Integer.valueOf(id));
+			mHiddenIds.addLast(id);
+			scheduleSummary();
+			return true;
+		}
+
+		Notification notification = mService.getHiddenNotification(id);
+		if (notification == null) {
+			return false;
+		}
+
+		notification.flags = notification.flags | Notification.FLAG_NO_CLEAR
+				| Notification.FLAG_AUTO_CANCEL;
+		post(id, notification, false);
+		return true;
+	}
+
+	/**
+	 * Remove the hidden notification of the window, after any pending post of
+	 * it. In summary mode, remove the window from the summary.
+	 *
+	 * @param id
+	 *            The id of the window that was restored or closed.
+	 */
+	void cancelHidden(int id) {
+		if (mSummaryEnabled) {
+			if (mHiddenIds.remove(Integer.valueOf(id))) {
+				scheduleSummary();
+			}
+			return;
+		}
+
+		cancel(id);
+	}
+
+	/**
+	 * Remove the hidden notifications of the windows in one pass.
+	 *
+	 * @param ids
+	 *            The ids of the windows that were closed.
+	 */
+	void cancelHidden(final int[] ids) {
+		if (mSummaryEnabled) {
+			boolean changed = false;
+			for (int id : ids) {
+				changed |= mHiddenIds.remove(Integer.valueOf(id));
+			}
+			if (changed) {
+				scheduleSummary();
+			}
+			return;
+		}
+
+		mHandler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				for (int id : ids) {
+					mNotificationManager.cancel(mNotificationIdBase + id);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns a pending intent that starts the service with the intent,
+	 * reusing the one made last time for the same id and kind if the intent
+	 * did not change.
+	 *
+	 * @param context
+	 *            The context of the service.
+	 * @param id
+	 *            The id of the window.
+	 * @param kind
+	 *            {@link #KIND_PERSISTENT} or {@link #KIND_HIDDEN}.
+	 * @param intent
+	 *            The intent to start the service with.
+	 * @return The pending intent.
+	 */
+	PendingIntent getPendingIntent(Context context, int id, int kind,
+			Intent intent) {
+		Long key = ((long) id << 1) | kind;
+		String uri = intent.toUri(0);
+
+		CachedPendingIntent cached = mPendingIntents.get(key);
+		if (cached != null && cached.uri.equals(uri)) {
+			return cached.pendingIntent;
+		}
+
+		PendingIntent pendingIntent = PendingIntent.getService(context, 0,
+				intent,
+				// flag updates existing persistent notification
+				PendingIntent.FLAG_UPDATE_CURRENT);
+		mPendingIntents.put(key, new CachedPendingIntent(uri, pendingIntent));
+		return pendingIntent;
+	}
+
+	/**
+	 * Drop the pending intents made for the window, of both kinds.
+	 *
+	 * @param id
+	 *            The id of the window that was closed.
+	 */
+	void forgetPendingIntents(int id) {
+		mPendingIntents.remove(((long) id << 1) | KIND_PERSISTENT);
+		mPendingIntents.remove(((long) id << 1) | KIND_HIDDEN);
+	}
+
+	/**
+	 * Drop the pending intents made for the windows, of both kinds.
+	 *
+	 * @param ids
+	 *            The ids of the windows that were closed.
+	 */
+	void forgetPendingIntents(int[] ids) {
+		for (int id : ids) {
+			forgetPendingIntents(id);
+		}
+	}
+
+	private void scheduleSummary() {
+		if (!mSummaryScheduled) {
+			mSummaryScheduled = true;
+			mMainHandler.postDelayed(mUpdateSummary, DEBOUNCE_MILLIS);
+		}
+	}
+
+	// hand the notification to the background thread
+	private void post(final int id, final Notification notification,
+			final boolean persistent) {
+		mHandler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				// the service may have left the foreground since
+				synchronized (mLock) {
+					if (persistent && !mForeground) {
+						return;
+					}
+					mNotificationManager.notify(mNotificationIdBase + id,
+							notification);
+				}
+			}
+		});
+	}
+
+	private void cancel(final int id) {
+		mHandler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				mNotificationManager.cancel(mNotificationIdBase + id);
+			}
+		});
+	}
+
+	/**
+	 * Stop the background thread once the hidden notifications and the
+	 * summary are up to date. Persistent notification updates are dropped,
+	 * and so are the cached pending intents.
+	 */
+	void quit() {
+		setForeground(false);
+		mPendingIntents.clear();
+
+		// bring the summary up to date now instead of after the delay
+		if (mSummaryScheduled) {
+			mMainHandler.removeCallbacks(mUpdateSummary);
+			mUpdateSummary.run();
+		}
+
+		mHandler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				mThread.quit();
+			}
+		});
+	}
+}
@@ -0,0 +1,140 @@
+package wei.mark.standout;
+
+import java.util.LinkedList;
+
+import wei.mark.standout.StandOutWindow.StandOutLayoutParams;
+
+/**
+ * Lifecycle operations requested for a window while it is in
+ * {@link wei.mark.standout.ui.Window#VISIBILITY_TRANSITION}. The operations
+ * are run once the hide or close animation ends.
+ *
+ * <p>
+ * Contradictory operations cancel out as they are queued. For example, a show
+ * followed by a close leaves only the close, and a close requested while the
+ * window is already closing is dropped. A show followed by a hide cancels out
+ * while the window is hiding, but not while it is closing, since the show
+ * then re-creates the window.
+ *
+ * <p>
+ * A window shown and then hidden or closed before it is added to the window
+ * manager never goes through a transition, see
+ * {@link StandOutWindow#show(int)}.
+ *
+ * <p>
+ * This class must only be used from the main thread.
+ */
+public class OperationQueue {
+	public static final int OP_NONE = 0;
+	public static final int OP_SHOW = 1;
+	public static final int OP_HIDE = 2;
+	public static final int OP_CLOSE = 3;
+
+	private final int mTransition;
+	private final LinkedList<Integer> mOperations;
+	private StandOutLayoutParams mPendingLayout;
+
+	/**
+	 * @param transition
+	 *            The operation in progress, either {@link #OP_HIDE} or
+	 *            {@link #OP_CLOSE}.
+	 */
+	public OperationQueue(int transition) {
+		mTransition = transition;
+		mOperations = new LinkedList<Integer>();
+	}
+
+	/**
+	 * Returns the operation in progress.
+	 *
+	 * @return Either {@link #OP_HIDE} or {@link #OP_CLOSE}.
+	 */
+	public int getTransition() {
+		return mTransition;
+	}
+
+	/**
+	 * Queue the operation, cancelling out earlier operations it contradicts.
+	 *
+	 * @param operation
+	 *            One of {@link #OP_SHOW}, {@link #OP_HIDE} or
+	 *            {@link #OP_CLOSE}.
+	 */
+	public void enqueue(int operation) {
+		Integer last = mOperations.isEmpty() ? null : mOperations.getLast();
+		if (last != null && last == operation) {
+			return;
+		}
+
+		switch (operation) {
+			case OP_SHOW:
+				// showing undoes a queued hide or close
+				mOperations.clear();
+				mOperations.addLast(operation);
+				break;
+			case OP_HIDE:
+				if (last == null || last != OP_SHOW) {
+					// the window is already being hidden or closed
+					break;
+				}
+				if (mTransition == OP_CLOSE) {
+					// the show re-creates the closed window, which is then
+					// hidden
+					mOperations.addLast(operation);
+				} else {
+					// the window stays hidden
+					mOperations.removeLast();
+				}
+				break;
+			case OP_CLOSE:
+				// closing supersedes a queued show or hide
+				mOperations.clear();
+				if (mTransition != OP_CLOSE) {
+					mOperations.addLast(operation);
+				}
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown operation: "
+						+ operation);
+		}
+	}
+
+	/**
+	 * Take the next queued operation.
+	 *
+	 * @return The operation, or {@link #OP_NONE} if the queue is empty.
+	 */
+	public int poll() {
+		Integer operation = mOperations.poll();
+		return operation == null ? OP_NONE : operation;
+	}
+
+	/**
+	 * Returns whether there are no queued operations.
+	 *
+	 * @return True if the queue is empty.
+	 */
+	public boolean isEmpty() {
+		return mOperations.isEmpty();
+	}
+
+	/**
+	 * Remember a layout update requested during the transition. Only the last
+	 * one is kept.
+	 *
+	 * @param params
+	 *            The layout params to apply once the window is shown again.
+	 */
+	public void setPendingLayout(StandOutLayoutParams params) {
+		mPendingLayout = params;
+	}
+
+	/**
+	 * Returns the last layout update requested during the transition.
+	 *
+	 * @return The layout params, or null.
+	 */
+	public StandOutLayoutParams getPendingLayout() {
+		return mPendingLayout;
+	}
+}
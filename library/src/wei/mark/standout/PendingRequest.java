@@ -0,0 +1,175 @@
+package wei.mark.standout;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * The future result of a request sent with
+ * {@link StandOutWindow#request(int, Class, int, int, Object, long)}. It is
+ * completed when the receiving window replies, and fails with a
+ * {@link TimeoutException} if no reply arrives in time. It fails with a
+ * {@link java.util.concurrent.RejectedExecutionException} if the mailbox of
+ * the receiving window drops or replaces it.
+ *
+ * <p>
+ * The request is cancelled when the sending or the receiving window closes.
+ * Windows on the main thread should not block on {@link #get()}. They can
+ * set a {@link Listener} instead.
+ */
+public class PendingRequest extends FutureTask<Object> {
+	/**
+	 * Callback for the completion of a request.
+	 */
+	public interface Listener {
+		/**
+		 * Called on the main thread when the request was answered, failed,
+		 * timed out or was cancelled.
+		 *
+		 * @param request
+		 *            The completed request. Its {@link #get()} does not block.
+		 */
+		void onComplete(PendingRequest request);
+	}
+
+	private static final AtomicInteger sNextCorrelationId;
+	private static final ConcurrentHashMap<Integer, PendingRequest> sPending;
+	private static final Handler sHandler;
+
+	static {
+		sNextCorrelationId = new AtomicInteger();
+		sPending = new ConcurrentHashMap<Integer, PendingRequest>();
+		sHandler = new Handler(Looper.getMainLooper());
+	}
+
+	// never called, the result is set by the reply
+	private static final Callable<Object> NO_TASK = new Callable<Object>() {
+
+		@Override
+		public Object call() {
+			return null;
+		}
+	};
+
+	private final int mCorrelationId;
+	final Class<? extends StandOutWindow> toCls;
+	final int toId;
+	final Class<? extends StandOutWindow> fromCls;
+	final int fromId;
+
+	private final Runnable mTimeout;
+	private Listener mListener;
+
+	PendingRequest(Class<? extends StandOutWindow> toCls, int toId,
+			Class<? extends StandOutWindow> fromCls, int fromId,
+			long timeoutMillis) {
+		super(NO_TASK);
+
+		mCorrelationId = sNextCorrelationId.incrementAndGet();
+		this.toCls = toCls;
+		this.toId = toId;
+		this.fromCls = fromCls;
+		this.fromId = fromId;
+
+		mTimeout = new Runnable() {
+
+			@Override
+			public void run() {
+				setException(new TimeoutException("Request "
+						+ mCorrelationId + " timed out."));
+			}
+		};
+
+		sPending.put(mCorrelationId, this);
+		if (timeoutMillis > 0) {
+			sHandler.postDelayed(mTimeout, timeoutMillis);
+		}
+	}
+
+	/**
+	 * Returns the id that correlates the reply with this request.
+	 *
+	 * @return The correlation id, unique in this process.
+	 */
+	public int getCorrelationId() {
+		return mCorrelationId;
+	}
+
+	/**
+	 * Set the callback for the completion of this request. If the request is
+	 * already complete, the callback is posted right away.
+	 *
+	 * @param listener
+	 *            The callback, called on the main thread.
+	 * @return This request.
+	 */
+	public PendingRequest setListener(Listener listener) {
+		synchronized (this) {
+			mListener = listener;
+		}
+		if (isDone()) {
+			postListener();
+		}
+		return this;
+	}
+
+	@Override
+	public void run() {
+		// completed by the reply only
+	}
+
+	@Override
+	protected void done() {
+		sPending.remove(mCorrelationId);
+		sHandler.removeCallbacks(mTimeout);
+		postListener();
+	}
+
+	private void postListener() {
+		final Listener listener;
+		synchronized (this) {
+			listener = mListener;
+			mListener = null;
+		}
+
+		if (listener != null) {
+			sHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					listener.onComplete(PendingRequest.this);
+				}
+			});
+		}
+	}
+
+	void complete(Object result) {
+		set(result);
+	}
+
+	void fail(Throwable cause) {
+		setException(cause);
+	}
+
+	/**
+	 * Cancel the requests sent by or to the window, which is closing.
+	 *
+	 * @param cls
+	 *            The class of the window.
+	 * @param id
+	 *            The id of the window.
+	 */
+	static void cancelAll(Class<? extends StandOutWindow> cls, int id) {
+		for (PendingRequest request : sPending.values()) {
+			if ((request.toCls == cls && request.toId == id)
+					|| (request.fromCls == cls && request.fromId == id)) {
+				request.cancel(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,58 @@
+package wei.mark.standout;
+
+/**
+ * Answers a request received by a window. Reply at most once, from any
+ * thread, either right away or later.
+ *
+ * @see StandOutWindow#onReceiveRequest(int, int, Object, Class, int, Reply)
+ */
+public class Reply {
+	private final PendingRequest mRequest;
+	final Object data;
+
+	Reply(PendingRequest request, Object data) {
+		mRequest = request;
+		this.data = data;
+	}
+
+	/**
+	 * Returns the id that correlates this reply with its request.
+	 *
+	 * @return The correlation id.
+	 */
+	public int getCorrelationId() {
+		return mRequest.getCorrelationId();
+	}
+
+	/**
+	 * Complete the request with the result.
+	 *
+	 * @param result
+	 *            The result, passed by reference to the sender.
+	 */
+	public void send(Object result) {
+		mRequest.complete(result);
+	}
+
+	/**
+	 * Complete the request with an error. The sender's
+	 * {@link PendingRequest#get()} throws an
+	 * {@link java.util.concurrent.ExecutionException} caused by it.
+	 *
+	 * @param cause
+	 *            The error.
+	 */
+	public void fail(Throwable cause) {
+		mRequest.fail(cause);
+	}
+
+	/**
+	 * Returns whether the sender no longer waits for the reply, because the
+	 * request was cancelled, timed out or was already answered.
+	 *
+	 * @return True if replying has no effect.
+	 */
+	public boolean isDone() {
+		return mRequest.isDone();
+	}
+}
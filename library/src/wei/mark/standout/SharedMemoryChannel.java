@@ -0,0 +1,281 @@
+package wei.mark.standout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+import android.content.Context;
+import android.os.Bundle;
+
+/**
+ * A ring buffer in a memory-mapped file, for passing large payloads from one
+ * window to another, also across processes. The payload is copied into the
+ * mapping once and read from it once. Only a small notification
+ * {@link Bundle} goes through the usual sendData() route.
+ *
+ * <p>
+ * A channel has one writer and one reader. The writer appends records with
+ * {@link #write(byte[], int, int)} and sends the notification made by
+ * {@link #newNotification()}, or does both with
+ * {@link #writeAndNotify(Context, Class, int, int, byte[], Class, int)}. The
+ * reader opens the channel named in the notification with
+ * {@link #open(Bundle)} and takes records with {@link #read()} until it
+ * returns null.
+ *
+ * <p>
+ * The ring itself does not rely on the notification for ordering. Each side
+ * publishes its position in the mapping only after a fence, and the reader
+ * checks every length and position it reads before copying. The file must be
+ * reachable by both processes, for example in {@link Context#getFilesDir()}
+ * of the same application. Creating the file is guarded by a file lock, so
+ * both sides may open it first.
+ *
+ * <p>
+ * The methods are synchronized, which only serializes threads of one process.
+ * There must be exactly one writing and one reading process or thread,
+ * because nothing stops two writers in different processes from overwriting
+ * each other.
+ */
+public class SharedMemoryChannel {
+	static final String EXTRA_PATH = "wei.mark.standout.channel.path";
+	static final String EXTRA_CAPACITY = "wei.mark.standout.channel.capacity";
+
+	private final File mFile;
+	private final RandomAccessFile mRandomAccessFile;
+	private final SharedMemoryRing mRing;
+
+	// a file lock is held by the process, and locking a file twice in one
+	// process throws, so threads of this process take turns first
+	private static final Object sOpenLock = new Object();
+
+	private SharedMemoryChannel(File file, int capacity) throws IOException {
+		mFile = file;
+		mRandomAccessFile = new RandomAccessFile(file, "rw");
+		try {
+			synchronized (sOpenLock) {
+				// another process must not map the file while it is created
+				FileLock lock = mRandomAccessFile.getChannel().lock();
+				try {
+					mRing = openRing(file, capacity);
+				} finally {
+					lock.release();
+				}
+			}
+		} catch (IOException ex) {
+			mRandomAccessFile.close();
+			throw ex;
+		}
+	}
+
+	// map the ring, formatting it if the file does not hold one yet. must be
+	// called while holding the file lock
+	private SharedMemoryRing openRing(File file, int capacity)
+			throws IOException {
+		// a creator that crashed before writing the magic left a file without
+		// one, which is formatted again
+		long length = mRandomAccessFile.length();
+		boolean formatted = length >= SharedMemoryRing.HEADER_SIZE
+				&& readMagic() == SharedMemoryRing.MAGIC;
+		if (!formatted) {
+			mRandomAccessFile.setLength(SharedMemoryRing.HEADER_SIZE
+					+ capacity);
+		}
+
+		MappedByteBuffer buffer = mRandomAccessFile.getChannel().map(
+				FileChannel.MapMode.READ_WRITE, 0, mRandomAccessFile.length());
+
+		if (!formatted) {
+			return SharedMemoryRing.format(buffer, capacity);
+		}
+		try {
+			return new SharedMemoryRing(buffer);
+		} catch (IllegalArgumentException ex) {
+			throw new IOException(file + " is not a channel: "
+					+ ex.getMessage());
+		}
+	}
+
+	private int readMagic() throws IOException {
+		mRandomAccessFile.seek(SharedMemoryRing.OFFSET_MAGIC);
+		return mRandomAccessFile.readInt();
+	}
+
+	/**
+	 * Create the channel file, or open it if it exists.
+	 *
+	 * @param file
+	 *            The file backing the channel.
+	 * @param capacity
+	 *            The number of bytes the ring buffer holds, if the file is
+	 *            created. At most 512 MB.
+	 * @return The channel.
+	 * @throws IOException
+	 *             If the file cannot be mapped or is not a channel.
+	 */
+	public static SharedMemoryChannel open(File file, int capacity)
+			throws IOException {
+		if (capacity <= SharedMemoryRing.RECORD_HEADER_SIZE
+				|| capacity > SharedMemoryRing.MAX_CAPACITY) {
+			throw new IllegalArgumentException("Capacity must be larger than "
+					+ SharedMemoryRing.RECORD_HEADER_SIZE
+					+ " bytes and at most " + SharedMemoryRing.MAX_CAPACITY
+					+ " bytes.");
+		}
+		return new SharedMemoryChannel(file, capacity);
+	}
+
+	/**
+	 * Open the channel named in a notification.
+	 *
+	 * @param notification
+	 *            The data received by the reading window.
+	 * @return The channel.
+	 * @throws IOException
+	 *             If the file cannot be mapped or is not a channel.
+	 */
+	public static SharedMemoryChannel open(Bundle notification)
+			throws IOException {
+		return open(getFile(notification),
+				notification.getInt(EXTRA_CAPACITY));
+	}
+
+	/**
+	 * Returns whether the data is a notification of a channel.
+	 *
+	 * @param data
+	 *            The data received by the reading window.
+	 * @return True if the data names a channel.
+	 */
+	public static boolean isNotification(Bundle data) {
+		return data != null && data.containsKey(EXTRA_PATH);
+	}
+
+	/**
+	 * Returns the file of the channel named in a notification. Use it to keep
+	 * the channel open between notifications.
+	 *
+	 * @param notification
+	 *            The notification.
+	 * @return The file backing the channel.
+	 */
+	public static File getFile(Bundle notification) {
+		return new File(notification.getString(EXTRA_PATH));
+	}
+
+	/**
+	 * Returns the file backing this channel.
+	 *
+	 * @return The file.
+	 */
+	public File getFile() {
+		return mFile;
+	}
+
+	/**
+	 * Returns the number of bytes the ring buffer holds, including a 4 byte
+	 * length for each record.
+	 *
+	 * @return The capacity.
+	 */
+	public int getCapacity() {
+		return mRing.getCapacity();
+	}
+
+	/**
+	 * Returns a notification that tells the reader to read this channel.
+	 *
+	 * @return The notification, to send as data.
+	 */
+	public Bundle newNotification() {
+		Bundle notification = new Bundle();
+		notification.putString(EXTRA_PATH, mFile.getAbsolutePath());
+		notification.putInt(EXTRA_CAPACITY, mRing.getCapacity());
+		return notification;
+	}
+
+	/**
+	 * Append a record. Call only from the writer.
+	 *
+	 * @param data
+	 *            The bytes of the record.
+	 * @param offset
+	 *            The offset of the record in data.
+	 * @param length
+	 *            The length of the record.
+	 * @return True if the record was written, false if the reader has not
+	 *         made enough room yet.
+	 */
+	public boolean write(byte[] data, int offset, int length) {
+		return mRing.write(data, offset, length);
+	}
+
+	/**
+	 * Append a record and notify the receiving window.
+	 *
+	 * @param context
+	 *            A Context of the application package implementing the class of
+	 *            the sending window.
+	 * @param toCls
+	 *            The Service's class extending {@link StandOutWindow} that is
+	 *            managing the receiving window.
+	 * @param toId
+	 *            The id of the receiving window.
+	 * @param requestCode
+	 *            Provide a request code to declare what kind of data is being
+	 *            sent.
+	 * @param data
+	 *            The bytes of the record.
+	 * @param fromCls
+	 *            Provide the class of the sending window if you want a result.
+	 * @param fromId
+	 *            Provide the id of the sending window if you want a result.
+	 * @return True if the record was written, false if the reader has not
+	 *         made enough room yet.
+	 */
+	public boolean writeAndNotify(Context context,
+			Class<? extends StandOutWindow> toCls, int toId, int requestCode,
+			byte[] data, Class<? extends StandOutWindow> fromCls, int fromId) {
+		if (!write(data, 0, data.length)) {
+			return false;
+		}
+
+		StandOutWindow.sendData(context, toCls, toId, requestCode,
+				newNotification(), fromCls, fromId);
+		return true;
+	}
+
+	/**
+	 * Take the oldest record. Call only from the reader.
+	 *
+	 * @return The bytes of the record, or null if there is none.
+	 * @throws IllegalStateException
+	 *             If the mapping holds a record or position that is out of
+	 *             bounds, for example because another process corrupted it.
+	 */
+	public byte[] read() {
+		return mRing.read();
+	}
+
+	/**
+	 * Returns whether there is no record to read.
+	 *
+	 * @return True if the channel is empty.
+	 */
+	public boolean isEmpty() {
+		return mRing.isEmpty();
+	}
+
+	/**
+	 * Close the file. The mapping is released when the channel is garbage
+	 * collected.
+	 *
+	 * @throws IOException
+	 *             If the file cannot be closed.
+	 */
+	public void close() throws IOException {
+		mRandomAccessFile.close();
+	}
+}
@@ -0,0 +1,269 @@
+package wei.mark.standout;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The ring buffer of a {@link SharedMemoryChannel}, laid out in a
+ * {@link ByteBuffer} that may be shared with another process. This class does
+ * not depend on Android.
+ *
+ * <p>
+ * The buffer starts with a header holding the capacity and the write and read
+ * positions, followed by the ring. Each record is a 4 byte length followed by
+ * its bytes, and may wrap around the end of the ring. Positions count bytes
+ * modulo twice the capacity, so that they fit in an int, which every platform
+ * reads and writes in one piece, and so that a full ring can be told from an
+ * empty one.
+ *
+ * <p>
+ * There must be one writer and one reader. Each side only stores its own
+ * position, and only after a fence that orders its accesses to the ring
+ * before the store: the writer's record bytes are in place before the reader
+ * can see the new write position, and the reader has copied a record before
+ * the writer can see that its space is free. Everything read from the buffer
+ * is checked before it is used, so a corrupt or hostile buffer fails with an
+ * {@link IllegalStateException} instead of an out of bounds copy.
+ *
+ * <p>
+ * The methods are synchronized, which serializes threads of one process
+ * sharing an instance. It has no effect across processes.
+ */
+class SharedMemoryRing {
+	static final int MAGIC = 0x534f4332;
+
+	// header layout
+	static final int OFFSET_MAGIC = 0;
+	static final int OFFSET_CAPACITY = 4;
+	static final int OFFSET_WRITE = 8;
+	static final int OFFSET_READ = 16;
+	static final int HEADER_SIZE = 32;
+
+	// size of the length in front of every record
+	static final int RECORD_HEADER_SIZE = 4;
+
+	// positions go up to twice the capacity, and are advanced by up to the
+	// capacity, which must fit in an int
+	static final int MAX_CAPACITY = 1 << 29;
+
+	// see fence()
+	private static volatile int sFence;
+
+	private final ByteBuffer mBuffer;
+	private final int mCapacity;
+
+	// length of a record, reused by read()
+	private final byte[] mHeader = new byte[RECORD_HEADER_SIZE];
+
+	/**
+	 * Use a buffer that already holds a ring.
+	 *
+	 * @param buffer
+	 *            The buffer, starting with the header.
+	 * @throws IllegalArgumentException
+	 *             If the buffer does not hold a ring.
+	 */
+	SharedMemoryRing(ByteBuffer buffer) {
+		if (buffer.capacity() < HEADER_SIZE
+				|| buffer.getInt(OFFSET_MAGIC) != MAGIC) {
+			throw new IllegalArgumentException("Buffer does not hold a ring.");
+		}
+
+		int capacity = buffer.getInt(OFFSET_CAPACITY);
+		if (capacity <= RECORD_HEADER_SIZE || capacity > MAX_CAPACITY
+				|| buffer.capacity() - HEADER_SIZE < capacity) {
+			throw new IllegalArgumentException("Ring of " + capacity
+					+ " bytes does not fit the buffer.");
+		}
+
+		mBuffer = buffer;
+		mCapacity = capacity;
+	}
+
+	/**
+	 * Write an empty ring into the buffer.
+	 *
+	 * @param buffer
+	 *            The buffer, at least {@link #HEADER_SIZE} + capacity bytes.
+	 * @param capacity
+	 *            The number of bytes the ring holds.
+	 * @return The ring.
+	 */
+	static SharedMemoryRing format(ByteBuffer buffer, int capacity) {
+		if (capacity <= RECORD_HEADER_SIZE || capacity > MAX_CAPACITY) {
+			throw new IllegalArgumentException("Capacity must be larger than "
+					+ RECORD_HEADER_SIZE + " bytes and at most "
+					+ MAX_CAPACITY + " bytes.");
+		}
+		if (buffer.capacity() - HEADER_SIZE < capacity) {
+			throw new IllegalArgumentException("Buffer is too small.");
+		}
+
+		buffer.putInt(OFFSET_CAPACITY, capacity);
+		buffer.putInt(OFFSET_WRITE, 0);
+		buffer.putInt(OFFSET_READ, 0);
+
+		// the magic marks the ring as ready
+		fence();
+		buffer.putInt(OFFSET_MAGIC, MAGIC);
+		return new SharedMemoryRing(buffer);
+	}
+
+	/**
+	 * Returns the number of bytes the ring holds, including a 4 byte length
+	 * for each record.
+	 *
+	 * @return The capacity.
+	 */
+	int getCapacity() {
+		return mCapacity;
+	}
+
+	/**
+	 * Append a record. Call only from the writer.
+	 *
+	 * @param data
+	 *            The bytes of the record.
+	 * @param offset
+	 *            The offset of the record in data.
+	 * @param length
+	 *            The length of the record.
+	 * @return True if the record was written, false if the reader has not
+	 *         made enough room yet.
+	 */
+	synchronized boolean write(byte[] data, int offset, int length) {
+		if (length < 0 || length > mCapacity - RECORD_HEADER_SIZE) {
+			throw new IllegalArgumentException("Record of " + length
+					+ " bytes does not fit in the ring.");
+		}
+
+		int write = position(OFFSET_WRITE);
+		int read = position(OFFSET_READ);
+		// do not touch the space until the reader is done with it
+		fence();
+
+		if (mCapacity - used(write, read) < length + RECORD_HEADER_SIZE) {
+			return false;
+		}
+
+		mHeader[0] = (byte) (length >>> 24);
+		mHeader[1] = (byte) (length >>> 16);
+		mHeader[2] = (byte) (length >>> 8);
+		mHeader[3] = (byte) length;
+		put(write, mHeader, 0, RECORD_HEADER_SIZE);
+		put(advance(write, RECORD_HEADER_SIZE), data, offset, length);
+
+		// publish the record once its bytes are in place
+		fence();
+		mBuffer.putInt(OFFSET_WRITE, advance(write, RECORD_HEADER_SIZE
+				+ length));
+		return true;
+	}
+
+	/**
+	 * Take the oldest record. Call only from the reader.
+	 *
+	 * @return The bytes of the record, or null if there is none.
+	 */
+	synchronized byte[] read() {
+		int read = position(OFFSET_READ);
+		int write = position(OFFSET_WRITE);
+		int used = used(write, read);
+		if (used == 0) {
+			return null;
+		}
+		// read the record only after seeing it published
+		fence();
+
+		if (used < RECORD_HEADER_SIZE) {
+			throw new IllegalStateException("Ring holds a partial record.");
+		}
+		get(read, mHeader, 0, RECORD_HEADER_SIZE);
+		int length = (mHeader[0] & 0xff) << 24 | (mHeader[1] & 0xff) << 16
+				| (mHeader[2] & 0xff) << 8 | (mHeader[3] & 0xff);
+		if (length < 0 || length > used - RECORD_HEADER_SIZE) {
+			throw new IllegalStateException("Record of " + length
+					+ " bytes is longer than the " + used
+					+ " bytes in the ring.");
+		}
+
+		byte[] data = new byte[length];
+		get(advance(read, RECORD_HEADER_SIZE), data, 0, length);
+
+		// hand the space back to the writer once the bytes are copied
+		fence();
+		mBuffer.putInt(OFFSET_READ, advance(read, RECORD_HEADER_SIZE + length));
+		return data;
+	}
+
+	/**
+	 * Returns whether there is no record to read.
+	 *
+	 * @return True if the ring is empty.
+	 */
+	synchronized boolean isEmpty() {
+		return position(OFFSET_READ) == position(OFFSET_WRITE);
+	}
+
+	// java 6 has no fence. accesses before a volatile store stay before it,
+	// accesses after a volatile load stay after it, and the store and the load
+	// stay in order, which together make a full fence
+	private static int fence() {
+		sFence = 1;
+		return sFence;
+	}
+
+	// a position stored in the header, checked to be in range
+	private int position(int offset) {
+		int position = mBuffer.getInt(offset);
+		if (position < 0 || position >= 2 * mCapacity) {
+			throw new IllegalStateException("Ring position " + position
+					+ " is out of range.");
+		}
+		return position;
+	}
+
+	// the number of bytes written but not read
+	private int used(int write, int read) {
+		int used = write - read;
+		if (used < 0) {
+			used += 2 * mCapacity;
+		}
+		if (used > mCapacity) {
+			throw new IllegalStateException("Ring positions " + read + " and "
+					+ write + " are inconsistent.");
+		}
+		return used;
+	}
+
+	private int advance(int position, int count) {
+		position += count;
+		return position >= 2 * mCapacity ? position - 2 * mCapacity
+				: position;
+	}
+
+	// copy into the ring, wrapping around its end
+	private void put(int position, byte[] src, int offset, int length) {
+		int index = position % mCapacity;
+		int first = Math.min(length, mCapacity - index);
+
+		mBuffer.position(HEADER_SIZE + index);
+		mBuffer.put(src, offset, first);
+		if (first < length) {
+			mBuffer.position(HEADER_SIZE);
+			mBuffer.put(src, offset + first, length - first);
+		}
+	}
+
+	// copy out of the ring, wrapping around its end
+	private void get(int position, byte[] dst, int offset, int length) {
+		int index = position % mCapacity;
+		int first = Math.min(length, mCapacity - index);
+
+		mBuffer.position(HEADER_SIZE + index);
+		mBuffer.get(dst, offset, first);
+		if (first < length) {
+			mBuffer.position(HEADER_SIZE);
+			mBuffer.get(dst, offset + first, length - first);
+		}
+	}
+}
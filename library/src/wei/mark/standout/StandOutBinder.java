@@ -0,0 +1,189 @@
+package wei.mark.standout;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import wei.mark.standout.WindowBatch.Operation;
+import wei.mark.standout.ui.Window;
+import android.content.pm.PackageManager;
+import android.os.Binder;
+import android.os.Parcel;
+import android.os.Process;
+import android.os.RemoteException;
+import android.util.Log;
+
+/**
+ * Receives {@link WindowBatch} transactions for a {@link StandOutWindow} and
+ * runs them on its main thread. Returned by
+ * {@link StandOutWindow#onBind(android.content.Intent)} if
+ * {@link StandOutWindow#isRemoteControlEnabled()}.
+ *
+ * <p>
+ * Only callers in the same application, or holding
+ * {@link StandOutWindow#getRemoteControlPermission()}, may send batches.
+ */
+class StandOutBinder extends Binder {
+	private final StandOutWindow mService;
+
+	StandOutBinder(StandOutWindow service) {
+		mService = service;
+	}
+
+	@Override
+	protected boolean onTransact(int code, Parcel data, Parcel reply,
+			int flags) throws RemoteException {
+		switch (code) {
+			case INTERFACE_TRANSACTION:
+				reply.writeString(WindowBatch.DESCRIPTOR);
+				return true;
+			case WindowBatch.TRANSACTION_BATCH:
+				data.enforceInterface(WindowBatch.DESCRIPTOR);
+				// before unparceling any bundle of the caller
+				enforceCaller();
+				WindowBatch batch = WindowBatch.readFromParcel(data,
+						mService.getClassLoader());
+				int[] results = run(batch);
+				reply.writeNoException();
+				reply.writeIntArray(results);
+				return true;
+		}
+		return super.onTransact(code, data, reply, flags);
+	}
+
+	/**
+	 * Throw a {@link SecurityException} unless the calling process may control
+	 * the windows of the service.
+	 */
+	private void enforceCaller() {
+		int uid = Binder.getCallingUid();
+		if (uid == Process.myUid()) {
+			return;
+		}
+
+		String permission = mService.getRemoteControlPermission();
+		if (permission == null
+				|| mService.checkCallingPermission(permission) != PackageManager.PERMISSION_GRANTED) {
+			throw new SecurityException("Uid " + uid
+					+ " may not control the windows of "
+					+ mService.getClass().getName() + ".");
+		}
+	}
+
+	/**
+	 * Run the batch on the main thread and wait for it to finish.
+	 *
+	 * @param batch
+	 *            The batch received from the client.
+	 * @return The result of each operation.
+	 */
+	private int[] run(final WindowBatch batch) {
+		Future<int[]> future = mService.submit(new Callable<int[]>() {
+
+			@Override
+			public int[] call() {
+				return runOnMainThread(batch);
+			}
+		});
+
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ex) {
+			Log.w(StandOutWindow.TAG, "Window batch failed.", ex.getCause());
+		}
+
+		int[] results = new int[batch.size()];
+		for (int i = 0; i < results.length; i++) {
+			results[i] = WindowBatch.RESULT_FAILED;
+		}
+		return results;
+	}
+
+	private int[] runOnMainThread(WindowBatch batch) {
+		int[] results = new int[batch.size()];
+		int lastShownId = 0;
+		boolean shown = false;
+
+		// the notification and focus are updated once at the end
+		mService.mBatching = true;
+		try {
+			for (int i = 0; i < results.length; i++) {
+				Operation operation = batch.operations.get(i);
+				try {
+					results[i] = runOperation(operation);
+				} catch (Exception ex) {
+					Log.w(StandOutWindow.TAG, "Window " + operation.id
+							+ " batch operation failed.", ex);
+					results[i] = WindowBatch.RESULT_FAILED;
+				}
+
+				if (operation.code == WindowBatch.OP_SHOW
+						&& results[i] == WindowBatch.RESULT_OK) {
+					lastShownId = operation.id;
+					shown = true;
+				}
+			}
+		} finally {
+			mService.mBatching = false;
+		}
+
+		if (shown) {
+			mService.onBatchShown(lastShownId);
+		}
+
+		return results;
+	}
+
+	private int runOperation(Operation operation) {
+		int id = operation.id;
+
+		// throws for the ids of the notifications, failing the operation
+		StandOutWindow.checkNotificationId(id);
+
+		if (operation.code == WindowBatch.OP_SHOW) {
+			Window window = mService.show(id);
+			return window == null ? WindowBatch.RESULT_CANCELLED
+					: WindowBatch.RESULT_OK;
+		}
+
+		if (operation.code == WindowBatch.OP_SEND_DATA) {
+			// through the mailbox, like data sent in this process
+			mService.postData(id, operation.arg1, operation.data, null,
+					StandOutWindow.DISREGARD_ID);
+			return WindowBatch.RESULT_OK;
+		}
+
+		Window window = mService.getWindow(id);
+		if (window == null) {
+			return WindowBatch.RESULT_NO_WINDOW;
+		}
+
+		switch (operation.code) {
+			case WindowBatch.OP_HIDE:
+				mService.hide(id);
+				// a cancelled hide leaves the window shown
+				return window.visibility == Window.VISIBILITY_VISIBLE ? WindowBatch.RESULT_CANCELLED
+						: WindowBatch.RESULT_OK;
+			case WindowBatch.OP_CLOSE:
+				mService.close(id);
+				// a cancelled close leaves the window cached and settled
+				return mService.getWindow(id) == window
+						&& window.visibility != Window.VISIBILITY_TRANSITION ? WindowBatch.RESULT_CANCELLED
+						: WindowBatch.RESULT_OK;
+			case WindowBatch.OP_MOVE:
+				window.edit().setPosition(operation.arg1, operation.arg2)
+						.commit();
+				return WindowBatch.RESULT_OK;
+			case WindowBatch.OP_RESIZE:
+				window.edit().setSize(operation.arg1, operation.arg2)
+						.commit();
+				return WindowBatch.RESULT_OK;
+		}
+
+		Log.w(StandOutWindow.TAG, "Unknown batch operation "
+				+ operation.code + ".");
+		return WindowBatch.RESULT_FAILED;
+	}
+}
@@ -1,9 +1,13 @@
 package wei.mark.standout;
 
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import wei.mark.standout.constants.StandOutFlags;
 import wei.mark.standout.ui.Window;
@@ -17,8 +21,11 @@ import android.graphics.PixelFormat;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.Display;
 import android.view.Gravity;
 import android.view.KeyEvent;
@@ -30,7 +37,6 @@ import android.view.ViewGroup;
 import android.view.WindowManager;
 import android.view.animation.Animation;
 import android.view.animation.Animation.AnimationListener;
-import android.view.animation.AnimationUtils;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
@@ -65,6 +71,13 @@ public abstract class StandOutWindow extends Service {
 	 */
 	public static final int DISREGARD_ID = -2;
 
+	/**
+	 * Special StandOut window id: You may NOT use this id for any windows. It
+	 * identifies the summary of hidden windows, see
+	 * {@link #isHiddenSummaryEnabled()}.
+	 */
+	public static final int HIDDEN_SUMMARY_NOTIFICATION_ID = -3;
+
 	/**
 	 * Intent action: Show a new window corresponding to the id.
 	 */
@@ -98,6 +111,32 @@ public abstract class StandOutWindow extends Service {
 	 */
 	public static final String ACTION_HIDE = "HIDE";
 
+	/**
+	 * Intent action: Send data to every existing window.
+	 */
+	public static final String ACTION_BROADCAST_DATA = "BROADCAST_DATA";
+
+	/**
+	 * Intent action: Show or restore the windows corresponding to the ids in
+	 * the "ids" extra, in one pass.
+	 */
+	public static final String ACTION_SHOW_MANY = "SHOW_MANY";
+
+	/**
+	 * Intent action: Hide the existing windows corresponding to the ids in the
+	 * "ids" extra, in one pass.
+	 */
+	public static final String ACTION_HIDE_MANY = "HIDE_MANY";
+
+	/**
+	 * Intent action: Close the existing windows corresponding to the ids in
+	 * the "ids" extra, in one pass.
+	 */
+	public static final String ACTION_CLOSE_MANY = "CLOSE_MANY";
+
+	// deliver the objects sent while the service was not running
+	static final String ACTION_SEND_PARKED_DATA = "SEND_PARKED_DATA";
+
 	/**
 	 * Show a new window corresponding to the id, or restore a previously hidden
 	 * window.
@@ -116,7 +155,26 @@ public abstract class StandOutWindow extends Service {
 	 */
 	public static void show(Context context,
 			Class<? extends StandOutWindow> cls, int id) {
-		context.startService(getShowIntent(context, cls, id));
+		dispatch(context, cls, getShowIntent(context, cls, id));
+	}
+
+	/**
+	 * Show or restore the windows corresponding to the ids with a single
+	 * service call.
+	 * 
+	 * @param context
+	 *            A Context of the application package implementing this class.
+	 * @param cls
+	 *            The Service extending {@link StandOutWindow} that will be used
+	 *            to create and manage the windows.
+	 * @param ids
+	 *            The ids representing the windows.
+	 * 
+	 * @see #showMany(int...)
+	 */
+	public static void show(Context context,
+			Class<? extends StandOutWindow> cls, int... ids) {
+		dispatch(context, cls, getShowManyIntent(context, cls, ids));
 	}
 
 	/**
@@ -136,7 +194,25 @@ public abstract class StandOutWindow extends Service {
 	 */
 	public static void hide(Context context,
 			Class<? extends StandOutWindow> cls, int id) {
-		context.startService(getHideIntent(context, cls, id));
+		dispatch(context, cls, getHideIntent(context, cls, id));
+	}
+
+	/**
+	 * Hide the existing windows corresponding to the ids with a single service
+	 * call.
+	 * 
+	 * @param context
+	 *            A Context of the application package implementing this class.
+	 * @param cls
+	 *            The Service extending {@link StandOutWindow} that is managing
+	 *            the windows.
+	 * @param ids
+	 *            The ids representing the windows.
+	 * @see #hideMany(int...)
+	 */
+	public static void hide(Context context,
+			Class<? extends StandOutWindow> cls, int... ids) {
+		dispatch(context, cls, getHideManyIntent(context, cls, ids));
 	}
 
 	/**
@@ -154,7 +230,25 @@ public abstract class StandOutWindow extends Service {
 	 */
 	public static void close(Context context,
 			Class<? extends StandOutWindow> cls, int id) {
-		context.startService(getCloseIntent(context, cls, id));
+		dispatch(context, cls, getCloseIntent(context, cls, id));
+	}
+
+	/**
+	 * Close the existing windows corresponding to the ids with a single
+	 * service call.
+	 * 
+	 * @param context
+	 *            A Context of the application package implementing this class.
+	 * @param cls
+	 *            The Service extending {@link StandOutWindow} that is managing
+	 *            the windows.
+	 * @param ids
+	 *            The ids representing the windows.
+	 * @see #closeMany(int...)
+	 */
+	public static void close(Context context,
+			Class<? extends StandOutWindow> cls, int... ids) {
+		dispatch(context, cls, getCloseManyIntent(context, cls, ids));
 	}
 
 	/**
@@ -169,7 +263,7 @@ public abstract class StandOutWindow extends Service {
 	 */
 	public static void closeAll(Context context,
 			Class<? extends StandOutWindow> cls) {
-		context.startService(getCloseAllIntent(context, cls));
+		dispatch(context, cls, getCloseAllIntent(context, cls));
 	}
 
 	/**
@@ -205,10 +299,191 @@ public abstract class StandOutWindow extends Service {
 	public static void sendData(Context context,
 			Class<? extends StandOutWindow> toCls, int toId, int requestCode,
 			Bundle data, Class<? extends StandOutWindow> fromCls, int fromId) {
-		context.startService(getSendDataIntent(context, toCls, toId,
+		// skip the intent if the receiver is running in this process
+		StandOutWindow service = sRunningServices.get(toCls);
+		if (service != null) {
+			service.postData(toId, requestCode, data, fromCls, fromId);
+			return;
+		}
+
+		dispatch(context, toCls, getSendDataIntent(context, toCls, toId,
 				requestCode, data, fromCls, fromId));
 	}
 
+	/**
+	 * Send an object by reference to a new or existing window of a
+	 * {@link StandOutWindow} in the same process. The object is neither
+	 * copied nor parceled, and is received on the next main loop iteration in
+	 * {@link #onReceiveData(int, int, Object, Class, int)}.
+	 * 
+	 * <p>
+	 * If the receiving service is not running yet, the object is kept until
+	 * the service is started, so the service must run in this process. Use
+	 * {@link #sendData(Context, Class, int, int, Bundle, Class, int)} to reach
+	 * windows in other processes. Bundles sent with this method take that
+	 * route.
+	 * 
+	 * @param context
+	 *            A Context of the application package implementing the class of
+	 *            the sending window.
+	 * @param toCls
+	 *            The Service's class extending {@link StandOutWindow} that is
+	 *            managing the receiving window.
+	 * @param toId
+	 *            The id of the receiving window, or DISREGARD_ID.
+	 * @param requestCode
+	 *            Provide a request code to declare what kind of data is being
+	 *            sent.
+	 * @param data
+	 *            The object to be sent to the receiving window.
+	 * @param fromCls
+	 *            Provide the class of the sending window if you want a result.
+	 * @param fromId
+	 *            Provide the id of the sending window if you want a result.
+	 * @see #sendData(int, Class, int, int, Object)
+	 */
+	public static void sendData(Context context,
+			Class<? extends StandOutWindow> toCls, int toId, int requestCode,
+			Object data, Class<? extends StandOutWindow> fromCls, int fromId) {
+		if (data == null || data instanceof Bundle) {
+			sendData(context, toCls, toId, requestCode, (Bundle) data,
+					fromCls, fromId);
+			return;
+		}
+
+		StandOutWindow service = sRunningServices.get(toCls);
+		if (service == null) {
+			service = parkData(context, toCls, new ParkedData(toId,
+					requestCode, data, fromCls, fromId));
+			if (service == null) {
+				return;
+			}
+		}
+
+		service.postData(toId, requestCode, data, fromCls, fromId);
+	}
+
+	/**
+	 * Send a request to a new or existing window of a {@link StandOutWindow}
+	 * in the same process, and get a future for its reply. The window receives
+	 * the request in
+	 * {@link #onReceiveRequest(int, int, Object, Class, int, Reply)}.
+	 * 
+	 * <p>
+	 * Each request has its own correlation id, so many requests may be in
+	 * flight at once. The request is cancelled when the sending or receiving
+	 * window closes.
+	 * 
+	 * @param context
+	 *            A Context of the application package implementing the class of
+	 *            the sending window.
+	 * @param toCls
+	 *            The Service's class extending {@link StandOutWindow} that is
+	 *            managing the receiving window.
+	 * @param toId
+	 *            The id of the receiving window, or DISREGARD_ID.
+	 * @param requestCode
+	 *            Provide a request code to declare what kind of request is
+	 *            being sent.
+	 * @param data
+	 *            The object to be sent to the receiving window.
+	 * @param fromCls
+	 *            The class of the sending window.
+	 * @param fromId
+	 *            The id of the sending window.
+	 * @param timeoutMillis
+	 *            The time to wait for the reply, or 0 to wait until the reply
+	 *            arrives or the request is cancelled.
+	 * @return The future reply.
+	 * @see #request(int, Class, int, int, Object, long)
+	 */
+	public static PendingRequest request(Context context,
+			Class<? extends StandOutWindow> toCls, int toId, int requestCode,
+			Object data, Class<? extends StandOutWindow> fromCls, int fromId,
+			long timeoutMillis) {
+		PendingRequest request = new PendingRequest(toCls, toId, fromCls,
+				fromId, timeoutMillis);
+
+		// the reply travels with the data through the mailbox
+		sendData(context, toCls, toId, requestCode, new Reply(request, data),
+				fromCls, fromId);
+		return request;
+	}
+
+	/**
+	 * Send the same {@link Bundle} to every shown or hidden window of a
+	 * {@link StandOutWindow} in one pass. The windows receive it in
+	 * {@link #onReceiveBroadcast(int, Window, int, Object)}.
+	 * 
+	 * @param context
+	 *            A Context of the application package.
+	 * @param toCls
+	 *            The Service's class extending {@link StandOutWindow} that is
+	 *            managing the receiving windows.
+	 * @param requestCode
+	 *            Provide a request code to declare what kind of data is being
+	 *            sent.
+	 * @param data
+	 *            A bundle of parceleable data to be sent to the receiving
+	 *            windows.
+	 * @see #broadcastData(Context, Class, int, Object, WindowFilter)
+	 */
+	public static void broadcastData(Context context,
+			Class<? extends StandOutWindow> toCls, int requestCode,
+			Bundle data) {
+		dispatch(context, toCls,
+				getBroadcastDataIntent(context, toCls, requestCode, data));
+	}
+
+	/**
+	 * Send the same object by reference to every shown or hidden window of a
+	 * {@link StandOutWindow} in the same process that the filter accepts, in
+	 * one pass on the main thread. The windows receive it in
+	 * {@link #onReceiveBroadcast(int, Window, int, Object)}.
+	 * 
+	 * <p>
+	 * If the service is not running in this process, it has no windows in
+	 * this process. A {@link Bundle} without a filter is then sent with an
+	 * {@link Intent} in case the service runs in another process, and any
+	 * other data is dropped.
+	 * 
+	 * @param context
+	 *            A Context of the application package.
+	 * @param toCls
+	 *            The Service's class extending {@link StandOutWindow} that is
+	 *            managing the receiving windows.
+	 * @param requestCode
+	 *            Provide a request code to declare what kind of data is being
+	 *            sent.
+	 * @param data
+	 *            The object to be sent to the receiving windows.
+	 * @param filter
+	 *            Decides which windows receive the data, or null for all
+	 *            windows. Called on the main thread.
+	 */
+	public static void broadcastData(Context context,
+			Class<? extends StandOutWindow> toCls, final int requestCode,
+			final Object data, final WindowFilter filter) {
+		final StandOutWindow service = sRunningServices.get(toCls);
+		if (service == null) {
+			if (filter == null && (data == null || data instanceof Bundle)) {
+				broadcastData(context, toCls, requestCode, (Bundle) data);
+			} else {
+				Log.d(TAG, "Dropped broadcast to " + toCls.getName()
+						+ ", which is not running.");
+			}
+			return;
+		}
+
+		service.mHandler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				service.deliverBroadcast(requestCode, data, filter);
+			}
+		});
+	}
+
 	/**
 	 * See {@link #show(Context, Class, int)}.
 	 * 
@@ -227,9 +502,9 @@ public abstract class StandOutWindow extends Service {
 	public static Intent getShowIntent(Context context,
 			Class<? extends StandOutWindow> cls, int id) {
 		boolean cached = sWindowCache.isCached(id, cls);
-		String action = cached ? ACTION_RESTORE : ACTION_SHOW;
-		Uri uri = cached ? Uri.parse("standout://" + cls + '/' + id) : null;
-		return new Intent(context, cls).putExtra("id", id).setAction(action)
+		int code = cached ? IntentCodec.CODE_RESTORE : IntentCodec.CODE_SHOW;
+		Uri uri = cached ? IntentCodec.getWindowUri(cls, id) : null;
+		return IntentCodec.newIntent(context, cls, code).putExtra("id", id)
 				.setData(uri);
 	}
 
@@ -250,8 +525,8 @@ public abstract class StandOutWindow extends Service {
 	 */
 	public static Intent getHideIntent(Context context,
 			Class<? extends StandOutWindow> cls, int id) {
-		return new Intent(context, cls).putExtra("id", id).setAction(
-				ACTION_HIDE);
+		return IntentCodec.newIntent(context, cls, IntentCodec.CODE_HIDE)
+				.putExtra("id", id);
 	}
 
 	/**
@@ -271,8 +546,65 @@ public abstract class StandOutWindow extends Service {
 	 */
 	public static Intent getCloseIntent(Context context,
 			Class<? extends StandOutWindow> cls, int id) {
-		return new Intent(context, cls).putExtra("id", id).setAction(
-				ACTION_CLOSE);
+		return IntentCodec.newIntent(context, cls, IntentCodec.CODE_CLOSE)
+				.putExtra("id", id);
+	}
+
+	/**
+	 * See {@link #show(Context, Class, int...)}.
+	 * 
+	 * @param context
+	 *            A Context of the application package implementing this class.
+	 * @param cls
+	 *            The Service extending {@link StandOutWindow} that will be used
+	 *            to create and manage the windows.
+	 * @param ids
+	 *            The ids representing the windows.
+	 * @return An {@link Intent} to use with
+	 *         {@link Context#startService(Intent)}.
+	 */
+	public static Intent getShowManyIntent(Context context,
+			Class<? extends StandOutWindow> cls, int... ids) {
+		return IntentCodec.newIntent(context, cls,
+				IntentCodec.CODE_SHOW_MANY).putExtra("ids", ids);
+	}
+
+	/**
+	 * See {@link #hide(Context, Class, int...)}.
+	 * 
+	 * @param context
+	 *            A Context of the application package implementing this class.
+	 * @param cls
+	 *            The Service extending {@link StandOutWindow} that is managing
+	 *            the windows.
+	 * @param ids
+	 *            The ids representing the windows.
+	 * @return An {@link Intent} to use with
+	 *         {@link Context#startService(Intent)}.
+	 */
+	public static Intent getHideManyIntent(Context context,
+			Class<? extends StandOutWindow> cls, int... ids) {
+		return IntentCodec.newIntent(context, cls,
+				IntentCodec.CODE_HIDE_MANY).putExtra("ids", ids);
+	}
+
+	/**
+	 * See {@link #close(Context, Class, int...)}.
+	 * 
+	 * @param context
+	 *            A Context of the application package implementing this class.
+	 * @param cls
+	 *            The Service extending {@link StandOutWindow} that is managing
+	 *            the windows.
+	 * @param ids
+	 *            The ids representing the windows.
+	 * @return An {@link Intent} to use with
+	 *         {@link Context#startService(Intent)}.
+	 */
+	public static Intent getCloseManyIntent(Context context,
+			Class<? extends StandOutWindow> cls, int... ids) {
+		return IntentCodec.newIntent(context, cls,
+				IntentCodec.CODE_CLOSE_MANY).putExtra("ids", ids);
 	}
 
 	/**
@@ -288,7 +620,7 @@ public abstract class StandOutWindow extends Service {
 	 */
 	public static Intent getCloseAllIntent(Context context,
 			Class<? extends StandOutWindow> cls) {
-		return new Intent(context, cls).setAction(ACTION_CLOSE_ALL);
+		return IntentCodec.newIntent(context, cls, IntentCodec.CODE_CLOSE_ALL);
 	}
 
 	/**
@@ -320,21 +652,167 @@ public abstract class StandOutWindow extends Service {
 	public static Intent getSendDataIntent(Context context,
 			Class<? extends StandOutWindow> toCls, int toId, int requestCode,
 			Bundle data, Class<? extends StandOutWindow> fromCls, int fromId) {
-		return new Intent(context, toCls).putExtra("id", toId)
+		Intent intent = IntentCodec.newIntent(context, toCls,
+				IntentCodec.CODE_SEND_DATA).putExtra("id", toId)
 				.putExtra("requestCode", requestCode)
 				.putExtra("wei.mark.standout.data", data)
-				.putExtra("wei.mark.standout.fromCls", fromCls)
-				.putExtra("fromId", fromId).setAction(ACTION_SEND_DATA);
+				.putExtra("fromId", fromId);
+		IntentCodec.putFromClass(intent, fromCls);
+		return intent;
+	}
+
+	/**
+	 * See {@link #broadcastData(Context, Class, int, Bundle)}.
+	 * 
+	 * @param context
+	 *            A Context of the application package.
+	 * @param toCls
+	 *            The Service's class extending {@link StandOutWindow} that is
+	 *            managing the receiving windows.
+	 * @param requestCode
+	 *            Provide a request code to declare what kind of data is being
+	 *            sent.
+	 * @param data
+	 *            A bundle of parceleable data to be sent to the receiving
+	 *            windows.
+	 * @return An {@link Intent} to use with
+	 *         {@link Context#startService(Intent)}.
+	 */
+	public static Intent getBroadcastDataIntent(Context context,
+			Class<? extends StandOutWindow> toCls, int requestCode,
+			Bundle data) {
+		return IntentCodec.newIntent(context, toCls,
+				IntentCodec.CODE_BROADCAST_DATA)
+				.putExtra("requestCode", requestCode)
+				.putExtra("wei.mark.standout.data", data);
+	}
+
+	/**
+	 * Returns an immutable snapshot of the shown and hidden windows of every
+	 * {@link StandOutWindow} class in this process. The snapshot can be read
+	 * from any thread without locking, for example to build intents or report
+	 * telemetry from a background thread. The windows it references must only
+	 * be touched on the main thread.
+	 * 
+	 * @return The current snapshot.
+	 */
+	public static WindowCache.Snapshot getWindowSnapshot() {
+		return sWindowCache.getSnapshot();
 	}
 
 	// internal map of ids to shown/hidden views
 	static WindowCache sWindowCache;
 	static Window sFocusedWindow;
 
+	// z-order of shown windows, shared by all services in the process
+	static WindowStack sWindowStack;
+
+	// screen rectangles of shown windows, shared like the stack
+	static WindowIndex<Window> sWindowIndex;
+
+	// running services in this process, by class
+	static ConcurrentHashMap<Class<? extends StandOutWindow>, StandOutWindow> sRunningServices;
+
 	// static constructors
 	static {
 		sWindowCache = new WindowCache();
 		sFocusedWindow = null;
+		sWindowStack = new WindowStack();
+		sWindowIndex = new WindowIndex<Window>();
+		sRunningServices = new ConcurrentHashMap<Class<? extends StandOutWindow>, StandOutWindow>();
+		sParkedData = new ConcurrentHashMap<Class<? extends StandOutWindow>, ConcurrentLinkedQueue<ParkedData>>();
+	}
+
+	// an object sent to a service that was not running
+	private static class ParkedData {
+		final int toId;
+		final int requestCode;
+		final Object data;
+		final Class<? extends StandOutWindow> fromCls;
+		final int fromId;
+
+		ParkedData(int toId, int requestCode, Object data,
+				Class<? extends StandOutWindow> fromCls, int fromId) {
+			this.toId = toId;
+			this.requestCode = requestCode;
+			this.data = data;
+			this.fromCls = fromCls;
+			this.fromId = fromId;
+		}
+	}
+
+	// objects waiting for their service to start, by class. parking and
+	// registering a service are serialized by this map's monitor
+	private static ConcurrentHashMap<Class<? extends StandOutWindow>, ConcurrentLinkedQueue<ParkedData>> sParkedData;
+
+	/**
+	 * Keep the object until the service is started, then start it. If the
+	 * service was registered since the caller looked, nothing is parked.
+	 * 
+	 * @return The running service to post the object to instead, or null if
+	 *         the object was parked.
+	 */
+	private static StandOutWindow parkData(Context context,
+			Class<? extends StandOutWindow> cls, ParkedData message) {
+		synchronized (sParkedData) {
+			StandOutWindow service = sRunningServices.get(cls);
+			if (service != null) {
+				return service;
+			}
+
+			ConcurrentLinkedQueue<ParkedData> parked = sParkedData.get(cls);
+			if (parked == null) {
+				parked = new ConcurrentLinkedQueue<ParkedData>();
+				sParkedData.put(cls, parked);
+			}
+			parked.offer(message);
+		}
+
+		context.startService(IntentCodec.newIntent(context, cls,
+				IntentCodec.CODE_SEND_PARKED_DATA));
+		return null;
+	}
+
+	/**
+	 * Hand the command to the running service of the class in this process,
+	 * skipping the round trip through the system. If the service is not
+	 * running in this process, or is only bound and was never started, the
+	 * command is sent with {@link Context#startService(Intent)}, which starts
+	 * it. A bound service that was never started would be destroyed with its
+	 * windows when its last client unbinds.
+	 * 
+	 * <p>
+	 * A command handed over directly is not parceled, so a {@link Bundle}
+	 * sent with it is received as the same instance.
+	 * 
+	 * @param context
+	 *            A Context of the application package.
+	 * @param cls
+	 *            The Service extending {@link StandOutWindow} the command is
+	 *            for.
+	 * @param intent
+	 *            The command, built by one of the get*Intent() methods.
+	 */
+	private static void dispatch(final Context context,
+			Class<? extends StandOutWindow> cls, final Intent intent) {
+		final StandOutWindow service = sRunningServices.get(cls);
+		if (service == null || !service.mStarted) {
+			context.startService(intent);
+			return;
+		}
+
+		service.mHandler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				// the service may have been destroyed in the meantime
+				if (service.mDestroyed) {
+					context.startService(intent);
+				} else {
+					service.onCommand(intent);
+				}
+			}
+		});
 	}
 
 	// internal system services
@@ -342,12 +820,67 @@ public abstract class StandOutWindow extends Service {
 	private NotificationManager mNotificationManager;
 	LayoutInflater mLayoutInflater;
 
+	// posts notifications off the main thread
+	NotificationPoster mNotificationPoster;
+
+	// slot of this class in the window cache
+	int mSlot;
+
+	// handler of the main thread, where all windows are touched
+	Handler mHandler;
+
+	// coalesces layout updates to one per window per frame
+	FrameScheduler mFrameScheduler;
+
+	// animates window geometry on the frames of the scheduler
+	WindowAnimator mWindowAnimator;
+
+	// closed windows kept for reuse
+	WindowPool mWindowPool;
+
+	// default animations, loaded once
+	AnimationCache mAnimationCache;
+
+	// operations requested while a window is hiding or closing
+	SparseArray<OperationQueue> mOperationQueues;
+
+	// shown windows waiting to be added to the window manager, in z-order
+	private ArrayList<Window> mPendingAdds;
+
+	private final Runnable mAddPendingWindows = new Runnable() {
+
+		@Override
+		public void run() {
+			addPendingWindows();
+		}
+	};
+
 	// internal state variables
 	private boolean startedForeground;
+	private boolean mDestroyed;
+
+	// whether onStartCommand() ran, so the service outlives its clients
+	private volatile boolean mStarted;
+
+	// data waiting for delivery, by receiving window id
+	ConcurrentHashMap<Integer, Mailbox> mMailboxes;
+
+	// set while showing many windows in one pass
+	boolean mBatching;
+
+	// created on the first bind if remote control is enabled
+	private StandOutBinder mBinder;
 
 	@Override
 	public IBinder onBind(Intent intent) {
-		return null;
+		if (!isRemoteControlEnabled()) {
+			return null;
+		}
+
+		if (mBinder == null) {
+			mBinder = new StandOutBinder(this);
+		}
+		return mBinder;
 	}
 
 	@Override
@@ -357,62 +890,325 @@ public abstract class StandOutWindow extends Service {
 		mWindowManager = (WindowManager) getSystemService(Context.WINDOW_SERVICE);
 		mNotificationManager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
 		mLayoutInflater = (LayoutInflater) getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+		mSlot = sWindowCache.register(getClass());
+		mHandler = new Handler(Looper.getMainLooper());
+		mFrameScheduler = new FrameScheduler(this, mWindowManager
+				.getDefaultDisplay().getRefreshRate());
+		mWindowAnimator = new WindowAnimator(this, mFrameScheduler);
+		mWindowPool = new WindowPool(getWindowPoolSize());
+		mAnimationCache = new AnimationCache(this);
+		mOperationQueues = new SparseArray<OperationQueue>();
+		mPendingAdds = new ArrayList<Window>();
+		mMailboxes = new ConcurrentHashMap<Integer, Mailbox>();
+		mNotificationPoster = new NotificationPoster(this,
+				mNotificationManager);
 
 		startedForeground = false;
+		mDestroyed = false;
+
+		// let the static methods reach this service directly. data parked
+		// before goes into the mailboxes first, so that it stays ahead of data
+		// sent from now on
+		synchronized (sParkedData) {
+			postParkedData();
+			sRunningServices.put(getClass(), this);
+		}
 	}
 
 	@Override
 	public int onStartCommand(Intent intent, int flags, int startId) {
 		super.onStartCommand(intent, flags, startId);
 
+		// later commands from this process may skip the system
+		mStarted = true;
+
 		// intent should be created with
 		// getShowIntent(), getHideIntent(), getCloseIntent()
 		if (intent != null) {
-			String action = intent.getAction();
-			int id = intent.getIntExtra("id", DEFAULT_ID);
-
-			// this will interfere with getPersistentNotification()
-			if (id == ONGOING_NOTIFICATION_ID) {
-				throw new RuntimeException(
-						"ID cannot equals StandOutWindow.ONGOING_NOTIFICATION_ID");
-			}
+			onCommand(intent);
+		} else {
+			Log.w(TAG, "Tried to onStartCommand() with a null intent.");
+		}
 
-			if (ACTION_SHOW.equals(action) || ACTION_RESTORE.equals(action)) {
-				show(id);
-			} else if (ACTION_HIDE.equals(action)) {
-				hide(id);
-			} else if (ACTION_CLOSE.equals(action)) {
+		// the service is started in foreground in show()
+		// so we don't expect Android to kill this service
+		return START_NOT_STICKY;
+	}
+
+	/**
+	 * Handle a command sent with one of the static methods, either through
+	 * {@link #onStartCommand(Intent, int, int)} or directly by
+	 * {@link #dispatch(Context, Class, Intent)}. Called on the main thread.
+	 * 
+	 * <p>
+	 * Once the service has been started, commands sent from this process are
+	 * handed to this method directly and do not go through
+	 * {@link #onStartCommand(Intent, int, int)}. A subclass that overrides
+	 * {@link #onStartCommand(Intent, int, int)} without calling through to
+	 * super keeps receiving every command there.
+	 * 
+	 * @param intent
+	 *            The command.
+	 */
+	void onCommand(Intent intent) {
+		int code = IntentCodec.getActionCode(intent);
+		int id = intent.getIntExtra("id", DEFAULT_ID);
+
+		checkNotificationId(id);
+
+		switch (code) {
+			case IntentCodec.CODE_SHOW:
+			case IntentCodec.CODE_RESTORE:
+				show(id);
+				break;
+			case IntentCodec.CODE_HIDE:
+				hide(id);
+				break;
+			case IntentCodec.CODE_CLOSE:
 				close(id);
-			} else if (ACTION_CLOSE_ALL.equals(action)) {
+				break;
+			case IntentCodec.CODE_CLOSE_ALL:
 				closeAll();
-			} else if (ACTION_SEND_DATA.equals(action)) {
-				if (!isExistingId(id) && id != DISREGARD_ID) {
-					Log.w(TAG,
-							"Sending data to non-existant window. If this is not intended, make sure toId is either an existing window's id or DISREGARD_ID.");
-				}
+				break;
+			case IntentCodec.CODE_SHOW_MANY:
+				showMany(getIdsExtra(intent));
+				break;
+			case IntentCodec.CODE_HIDE_MANY:
+				hideMany(getIdsExtra(intent));
+				break;
+			case IntentCodec.CODE_CLOSE_MANY:
+				closeMany(getIdsExtra(intent));
+				break;
+			case IntentCodec.CODE_SEND_DATA: {
 				Bundle data = intent.getBundleExtra("wei.mark.standout.data");
 				int requestCode = intent.getIntExtra("requestCode", 0);
-				@SuppressWarnings("unchecked")
-				Class<? extends StandOutWindow> fromCls = (Class<? extends StandOutWindow>) intent
-						.getSerializableExtra("wei.mark.standout.fromCls");
+				Class<? extends StandOutWindow> fromCls = IntentCodec
+						.getFromClass(this, intent);
 				int fromId = intent.getIntExtra("fromId", DEFAULT_ID);
-				onReceiveData(id, requestCode, data, fromCls, fromId);
+				try {
+					postData(id, requestCode, data, fromCls, fromId);
+				} catch (IllegalStateException ex) {
+					// the main thread cannot wait for a full mailbox
+					Log.w(TAG, "Dropped data for window " + id + ".", ex);
+				}
+				break;
+			}
+			case IntentCodec.CODE_SEND_PARKED_DATA:
+				// parked data was moved to the mailboxes in onCreate()
+				break;
+			case IntentCodec.CODE_BROADCAST_DATA: {
+				Bundle data = intent.getBundleExtra("wei.mark.standout.data");
+				int requestCode = intent.getIntExtra("requestCode", 0);
+				deliverBroadcast(requestCode, data, null);
+				break;
+			}
+			default:
+				Log.w(TAG, "Unknown action " + intent.getAction() + ".");
+				break;
+		}
+	}
+
+	/**
+	 * Hand the data to the matching
+	 * {@link #onReceiveData(int, int, Bundle, Class, int)} callback.
+	 */
+	private void deliverData(int id, int requestCode, Object data,
+			Class<? extends StandOutWindow> fromCls, int fromId) {
+		if (!isExistingId(id) && id != DISREGARD_ID) {
+			Log.w(TAG,
+					"Sending data to non-existant window. If this is not intended, make sure toId is either an existing window's id or DISREGARD_ID.");
+		}
+
+		if (data == null || data instanceof Bundle) {
+			onReceiveData(id, requestCode, (Bundle) data, fromCls, fromId);
+		} else if (data instanceof Reply) {
+			Reply reply = (Reply) data;
+
+			// the sender gave up already
+			if (reply.isDone()) {
+				return;
 			}
+
+			onReceiveRequest(id, requestCode, reply.data, fromCls, fromId,
+					reply);
 		} else {
-			Log.w(TAG, "Tried to onStartCommand() with a null intent.");
+			onReceiveData(id, requestCode, data, fromCls, fromId);
 		}
+	}
 
-		// the service is started in foreground in show()
-		// so we don't expect Android to kill this service
-		return START_NOT_STICKY;
+	/**
+	 * Move the objects that were sent while this service was not running to
+	 * the mailboxes, in the order they were sent. Must be called while holding
+	 * the monitor of sParkedData.
+	 */
+	private void postParkedData() {
+		ConcurrentLinkedQueue<ParkedData> parked = sParkedData.remove(getClass());
+		if (parked == null) {
+			return;
+		}
+
+		ParkedData message;
+		while ((message = parked.poll()) != null) {
+			try {
+				postData(message.toId, message.requestCode, message.data,
+						message.fromCls, message.fromId);
+			} catch (IllegalStateException ex) {
+				// the main thread cannot wait for a full mailbox
+				Log.w(TAG, "Dropped parked data for window " + message.toId
+						+ ".", ex);
+			}
+		}
+	}
+
+	/**
+	 * Hand the data to every window the filter accepts, in one pass over a
+	 * snapshot of the windows.
+	 */
+	private void deliverBroadcast(final int requestCode, final Object data,
+			final WindowFilter filter) {
+		forEachWindow(new WindowCache.WindowConsumer() {
+
+			@Override
+			public void accept(int id, Window window) {
+				if (filter == null || filter.accept(id, window)) {
+					onReceiveBroadcast(id, window, requestCode, data);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Put the data in the mailbox of the receiving window and post a delivery
+	 * to the main thread if none is pending. May be called from any thread.
+	 */
+	void postData(int toId, int requestCode, Object data,
+			Class<? extends StandOutWindow> fromCls, int fromId) {
+		Mailbox mailbox = mMailboxes.get(toId);
+		if (mailbox == null) {
+			mMailboxes.putIfAbsent(toId, new Mailbox(toId,
+					getMailboxCapacity(toId), getMailboxOverflowPolicy(toId)));
+			mailbox = mMailboxes.get(toId);
+		}
+
+		// each request needs its own reply
+		boolean coalesced = !(data instanceof Reply)
+				&& isDataCoalesced(toId, requestCode);
+
+		if (mailbox.offer(new Mailbox.Message(requestCode, coalesced, data,
+				fromCls, fromId))) {
+			postDelivery(mailbox);
+		}
+	}
+
+	private void postDelivery(final Mailbox mailbox) {
+		mHandler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				deliverMail(mailbox);
+			}
+		});
+	}
+
+	/**
+	 * Deliver the messages that were waiting when the delivery started. Later
+	 * messages get a delivery of their own, so a fast sender cannot keep the
+	 * main thread busy.
+	 */
+	private void deliverMail(Mailbox mailbox) {
+		int id = mailbox.getId();
+		int count = mailbox.getDepth();
+		for (int i = 0; i < count; i++) {
+			Mailbox.Message message = mailbox.poll();
+			if (message == null) {
+				break;
+			}
+
+			if (mDestroyed) {
+				// hand the data to the next instance of this service
+				resendData(id, message);
+			} else {
+				deliverData(id, message.requestCode, message.data,
+						message.fromCls, message.fromId);
+			}
+		}
+
+		if (mailbox.finishDelivery()) {
+			postDelivery(mailbox);
+		} else if (!isExistingId(id)) {
+			// the window closed while data was waiting
+			retireMailbox(id);
+		}
+	}
+
+	/**
+	 * Forget the mailbox of a window that is gone, if no data is waiting in
+	 * it, so that a window that reuses the id starts with a new mailbox. A
+	 * mailbox with waiting data is forgotten after its last delivery.
+	 */
+	private void retireMailbox(int id) {
+		Mailbox mailbox = mMailboxes.get(id);
+		// data offered meanwhile is still delivered from the old mailbox
+		if (mailbox != null && mailbox.isIdle()) {
+			mMailboxes.remove(id, mailbox);
+		}
+	}
+
+	private void resendData(int id, Mailbox.Message message) {
+		Context context = getApplicationContext();
+		if (message.data == null || message.data instanceof Bundle) {
+			sendData(context, getClass(), id, message.requestCode,
+					(Bundle) message.data, message.fromCls, message.fromId);
+		} else {
+			sendData(context, getClass(), id, message.requestCode,
+					message.data, message.fromCls, message.fromId);
+		}
 	}
 
 	@Override
 	public void onDestroy() {
 		super.onDestroy();
 
+		sRunningServices.remove(getClass(), this);
+		mDestroyed = true;
+
 		// closes all windows
 		closeAll();
+
+		mWindowAnimator.cancelAll();
+		mFrameScheduler.cancelAll();
+		mHandler.removeCallbacks(mAddPendingWindows);
+		mWindowPool.clear();
+		mNotificationPoster.quit();
+	}
+
+	@Override
+	public void onLowMemory() {
+		super.onLowMemory();
+
+		// hidden windows keep whole view trees for nothing on screen, but the
+		// user parked them, so only close them if the service asks for it
+		if (isCloseHiddenOnLowMemoryEnabled()) {
+			int[] existing = getExistingIdArray();
+			int[] hidden = new int[existing.length];
+			int count = 0;
+			for (int id : existing) {
+				Window window = getWindow(id);
+				if (window != null
+						&& window.visibility == Window.VISIBILITY_GONE) {
+					hidden[count++] = id;
+				}
+			}
+			if (count > 0) {
+				int[] ids = new int[count];
+				System.arraycopy(hidden, 0, ids, 0, count);
+				closeInBulk(ids);
+			}
+		}
+
+		// idle windows and animations can always be rebuilt
+		mWindowPool.clear();
+		mAnimationCache.trim();
 	}
 
 	/**
@@ -626,6 +1422,11 @@ public abstract class StandOutWindow extends Service {
 	 * {@link #getPersistentNotification(int)} that keeps one system-wide
 	 * persistent notification that creates a new window on every click.
 	 * 
+	 * <p>
+	 * This method is called on the main thread. After the first call, it is
+	 * called at most once per burst of shown windows, for the last window
+	 * shown. The notification is posted from a background thread.
+	 * 
 	 * @param id
 	 *            The id of the window.
 	 * @return The {@link Notification} corresponding to the id, or null if
@@ -649,10 +1450,8 @@ public abstract class StandOutWindow extends Service {
 		PendingIntent contentIntent = null;
 
 		if (notificationIntent != null) {
-			contentIntent = PendingIntent.getService(this, 0,
-					notificationIntent,
-					// flag updates existing persistent notification
-					PendingIntent.FLAG_UPDATE_CURRENT);
+			contentIntent = mNotificationPoster.getPendingIntent(this, id,
+					NotificationPoster.KIND_PERSISTENT, notificationIntent);
 		}
 
 		Notification notification = new Notification(icon, tickerText, when);
@@ -674,6 +1473,10 @@ public abstract class StandOutWindow extends Service {
 	 * {@link #getHiddenNotification(int)} that for every hidden window keeps a
 	 * notification which restores that window upon user's click.
 	 * 
+	 * <p>
+	 * This method is called on the main thread. The notification is posted
+	 * from a background thread.
+	 * 
 	 * @param id
 	 *            The id of the window.
 	 * @return The {@link Notification} corresponding to the id or null.
@@ -693,10 +1496,8 @@ public abstract class StandOutWindow extends Service {
 		PendingIntent contentIntent = null;
 
 		if (notificationIntent != null) {
-			contentIntent = PendingIntent.getService(this, 0,
-					notificationIntent,
-					// flag updates existing persistent notification
-					PendingIntent.FLAG_UPDATE_CURRENT);
+			contentIntent = mNotificationPoster.getPendingIntent(this, id,
+					NotificationPoster.KIND_HIDDEN, notificationIntent);
 		}
 
 		Notification notification = new Notification(icon, tickerText, when);
@@ -705,40 +1506,140 @@ public abstract class StandOutWindow extends Service {
 		return notification;
 	}
 
+	/**
+	 * Implement this method to show one summary notification for all hidden
+	 * windows of this implementation, instead of one notification per hidden
+	 * window. The summary is built with
+	 * {@link #getHiddenSummaryNotification(int[])} and updated as windows are
+	 * hidden, restored and closed.
+	 * 
+	 * <p>
+	 * In this mode {@link #getHiddenNotification(int)} is not called, and
+	 * hidden windows are never closed for lack of a notification.
+	 * 
+	 * <p>
+	 * This is called once when the service is created.
+	 * 
+	 * @return True to show a summary of hidden windows. The default is false.
+	 */
+	public boolean isHiddenSummaryEnabled() {
+		return false;
+	}
+
+	/**
+	 * Implement this method to close the hidden windows of this
+	 * implementation when the system runs low on memory. Their view trees are
+	 * released, but the user can no longer restore them.
+	 * 
+	 * @return True to close hidden windows on low memory. The default is
+	 *         false.
+	 */
+	public boolean isCloseHiddenOnLowMemoryEnabled() {
+		return false;
+	}
+
+	/**
+	 * Return the summary {@link Notification} for the hidden windows, if
+	 * {@link #isHiddenSummaryEnabled()}. The system requests a new summary at
+	 * most once per burst of hidden, restored or closed windows.
+	 * 
+	 * <p>
+	 * The default implementation counts the hidden windows and restores the
+	 * last hidden window upon user's click, through the same
+	 * {@link PendingIntent} its hidden notification would use.
+	 * 
+	 * <p>
+	 * This method is called on the main thread. The notification is posted
+	 * from a background thread.
+	 * 
+	 * @param ids
+	 *            The ids of the hidden windows, the last hidden last. Never
+	 *            empty.
+	 * @return The summary {@link Notification}, or null to remove it.
+	 */
+	public Notification getHiddenSummaryNotification(int[] ids) {
+		int last = ids[ids.length - 1];
+
+		// same basics as getHiddenNotification(), for the last hidden window
+		int icon = getHiddenIcon();
+		long when = System.currentTimeMillis();
+		Context c = getApplicationContext();
+		String contentTitle = String.format("%s Hidden (%d)", getAppName(),
+				ids.length);
+		String contentText = getHiddenNotificationTitle(last);
+		String message = getHiddenNotificationMessage(last);
+		if (message != null && message.length() > 0) {
+			contentText = String.format("%s: %s", contentText, message);
+		}
+
+		Intent notificationIntent = getHiddenNotificationIntent(last);
+
+		PendingIntent contentIntent = null;
+
+		if (notificationIntent != null) {
+			contentIntent = mNotificationPoster.getPendingIntent(this, last,
+					NotificationPoster.KIND_HIDDEN, notificationIntent);
+		}
+
+		Notification notification = new Notification(icon, contentText, when);
+		notification.setLatestEventInfo(c, contentTitle, contentText,
+				contentIntent);
+		notification.number = ids.length;
+		return notification;
+	}
+
 	/**
 	 * Return the animation to play when the window corresponding to the id is
 	 * shown.
 	 * 
+	 * <p>
+	 * The animation is reset before it is played, so you may return the same
+	 * instance every time, as long as it does not play on two windows at
+	 * once. The default implementation does so with a cached animation.
+	 * 
 	 * @param id
 	 *            The id of the window.
 	 * @return The animation to play or null.
 	 */
 	public Animation getShowAnimation(int id) {
-		return AnimationUtils.loadAnimation(this, android.R.anim.fade_in);
+		return mAnimationCache.obtain(AnimationCache.KIND_SHOW,
+				android.R.anim.fade_in);
 	}
 
 	/**
 	 * Return the animation to play when the window corresponding to the id is
 	 * hidden.
 	 * 
+	 * <p>
+	 * The animation is reset before it is played, so you may return the same
+	 * instance every time, as long as it does not play on two windows at
+	 * once. The default implementation does so with a cached animation.
+	 * 
 	 * @param id
 	 *            The id of the window.
 	 * @return The animation to play or null.
 	 */
 	public Animation getHideAnimation(int id) {
-		return AnimationUtils.loadAnimation(this, android.R.anim.fade_out);
+		return mAnimationCache.obtain(AnimationCache.KIND_HIDE,
+				android.R.anim.fade_out);
 	}
 
 	/**
 	 * Return the animation to play when the window corresponding to the id is
 	 * closed.
 	 * 
+	 * <p>
+	 * The animation is reset before it is played, so you may return the same
+	 * instance every time, as long as it does not play on two windows at
+	 * once. The default implementation does so with a cached animation.
+	 * 
 	 * @param id
 	 *            The id of the window.
 	 * @return The animation to play or null.
 	 */
 	public Animation getCloseAnimation(int id) {
-		return AnimationUtils.loadAnimation(this, android.R.anim.fade_out);
+		return mAnimationCache.obtain(AnimationCache.KIND_CLOSE,
+				android.R.anim.fade_out);
 	}
 
 	/**
@@ -751,6 +1652,118 @@ public abstract class StandOutWindow extends Service {
 		return 0;
 	}
 
+	/**
+	 * Implement this method to keep closed windows for reuse. When a window is
+	 * closed, it is kept in a pool instead of being thrown away, and the next
+	 * {@link #show(int)} of a new id reuses it instead of building a new
+	 * window with {@link #createAndAttachView(int, FrameLayout)}.
+	 * 
+	 * <p>
+	 * If you enable the pool, implement {@link #onRebind(int, Window)} to
+	 * update the contents of a reused window for its new id. Use
+	 * {@link #prewarm(int)} to build idle windows ahead of time.
+	 * 
+	 * <p>
+	 * This is called once when the service is created.
+	 * 
+	 * @return The maximum number of closed windows to keep, or 0 to disable
+	 *         the pool.
+	 */
+	public int getWindowPoolSize() {
+		return 0;
+	}
+
+	/**
+	 * Return whether other processes may bind to this service to control its
+	 * windows in batches with {@link WindowBatch}. The service must also be
+	 * exported in the manifest.
+	 * 
+	 * @return True to return a binder from {@link #onBind(Intent)}. The
+	 *         default is false.
+	 */
+	public boolean isRemoteControlEnabled() {
+		return false;
+	}
+
+	/**
+	 * Return the permission that processes of other applications must hold to
+	 * control the windows with {@link WindowBatch}. Declare it in the manifest,
+	 * usually with a signature protection level. Callers in this application
+	 * are always allowed.
+	 * 
+	 * @return The name of the permission, or null to only allow callers in
+	 *         this application. The default is null.
+	 */
+	public String getRemoteControlPermission() {
+		return null;
+	}
+
+	/**
+	 * Implement this method to limit how much data may wait for delivery to
+	 * the window corresponding to the id, whether it was sent from this
+	 * process or another. Called once for each id, from the sending thread,
+	 * or the main thread for data from another process, when the first data
+	 * is sent.
+	 * 
+	 * @param id
+	 *            The id of the receiving window.
+	 * @return The maximum number of waiting messages. The default is
+	 *         {@link Mailbox#DEFAULT_CAPACITY}, which is unbounded.
+	 * @see #getMailboxOverflowPolicy(int)
+	 */
+	public int getMailboxCapacity(int id) {
+		return Mailbox.DEFAULT_CAPACITY;
+	}
+
+	/**
+	 * Implement this method to decide what happens to data sent to the window
+	 * corresponding to the id when its mailbox is full. Called once for each
+	 * id, from the sending thread, when the first data is sent.
+	 * 
+	 * @param id
+	 *            The id of the receiving window.
+	 * @return One of {@link Mailbox#OVERFLOW_DROP_OLDEST},
+	 *         {@link Mailbox#OVERFLOW_DROP_NEWEST},
+	 *         {@link Mailbox#OVERFLOW_BLOCK} or {@link Mailbox#OVERFLOW_FAIL}.
+	 *         The default is {@link Mailbox#OVERFLOW_FAIL}, so no data is
+	 *         dropped without the sender knowing. Return a drop policy to
+	 *         prefer fresh data over complete data.
+	 * @see #getMailboxCapacity(int)
+	 */
+	public int getMailboxOverflowPolicy(int id) {
+		return Mailbox.OVERFLOW_FAIL;
+	}
+
+	/**
+	 * Implement this method to deliver only the latest data with the request
+	 * code to the window corresponding to the id. Data that is still waiting
+	 * is replaced instead of queued behind. Called from the sending thread for
+	 * every send.
+	 * 
+	 * @param id
+	 *            The id of the receiving window.
+	 * @param requestCode
+	 *            The request code of the data.
+	 * @return True if only the latest value matters. The default is false.
+	 */
+	public boolean isDataCoalesced(int id, int requestCode) {
+		return false;
+	}
+
+	/**
+	 * Returns the mailbox of the window corresponding to the id, which holds
+	 * its depth and drop counts. The mailbox of a closed window is dropped once
+	 * its data is delivered, and its counts with it.
+	 * 
+	 * @param id
+	 *            The id of the receiving window.
+	 * @return The mailbox, or null if no data was sent to the window from this
+	 *         process since it was shown.
+	 */
+	public final Mailbox getMailbox(int id) {
+		return mMailboxes.get(id);
+	}
+
 	/**
 	 * You probably want to leave this method alone and implement
 	 * {@link #getDropDownItems(int)} instead. Only implement this method if you
@@ -959,6 +1972,40 @@ public abstract class StandOutWindow extends Service {
 		return false;
 	}
 
+	/**
+	 * Implement this callback to be alerted when a closed window corresponding
+	 * to the id is about to be kept in the window pool for reuse. This callback
+	 * will occur after the view is removed from the window manager. Only
+	 * called if {@link #getWindowPoolSize()} is greater than 0.
+	 * 
+	 * @param id
+	 *            The id of the window that was closed.
+	 * @param window
+	 *            The window about to be pooled.
+	 * @return Return true to discard the window instead of pooling it, or false
+	 *         to continue.
+	 * @see #getWindowPoolSize()
+	 */
+	public boolean onRecycle(int id, Window window) {
+		return false;
+	}
+
+	/**
+	 * Implement this callback to be alerted when a pooled window is about to be
+	 * reused for the id. This callback will occur before
+	 * {@link #onShow(int, Window)}. The window's id, layout params, data and
+	 * title have already been reset for the new id; update the rest of your
+	 * view hierarchy here.
+	 * 
+	 * @param id
+	 *            The id the window is reused for.
+	 * @param window
+	 *            The reused window.
+	 * @see #getWindowPoolSize()
+	 */
+	public void onRebind(int id, Window window) {
+	}
+
 	/**
 	 * Implement this callback to be alerted when a window corresponding to the
 	 * id has received some data. The sender is described by fromCls and fromId
@@ -986,35 +2033,127 @@ public abstract class StandOutWindow extends Service {
 
 	/**
 	 * Implement this callback to be alerted when a window corresponding to the
-	 * id is about to be updated in the layout. This callback will occur before
-	 * the view is updated by the window manager.
+	 * id has received an object from a window in the same process. The object
+	 * is the same instance the sender passed to
+	 * {@link #sendData(int, Class, int, int, Object)}. Bundles are always
+	 * received by {@link #onReceiveData(int, int, Bundle, Class, int)}
+	 * instead.
 	 * 
 	 * @param id
-	 *            The id of the window, provided as a courtesy.
-	 * @param view
-	 *            The window about to be updated.
-	 * @param params
-	 *            The updated layout params.
-	 * @return Return true to cancel the window from being updated, or false to
-	 *         continue.
-	 * @see #updateViewLayout(int, Window, StandOutLayoutParams)
+	 *            The id of your receiving window.
+	 * @param requestCode
+	 *            The sending window provided this request code to declare what
+	 *            kind of data is being sent.
+	 * @param data
+	 *            The object that was sent to your receiving window.
+	 * @param fromCls
+	 *            The sending window's class. Provided if the sender wants a
+	 *            result.
+	 * @param fromId
+	 *            The sending window's id. Provided if the sender wants a
+	 *            result.
 	 */
-	public boolean onUpdate(int id, Window window, StandOutLayoutParams params) {
-		return false;
+	public void onReceiveData(int id, int requestCode, Object data,
+			Class<? extends StandOutWindow> fromCls, int fromId) {
+		Log.w(TAG, "Window " + id + " dropped data of type "
+				+ data.getClass().getName() + " with request code "
+				+ requestCode + ".");
 	}
 
 	/**
-	 * Implement this callback to be alerted when a window corresponding to the
-	 * id is about to be bought to the front. This callback will occur before
-	 * the window is brought to the front by the window manager.
+	 * Implement this callback to answer requests sent to the window
+	 * corresponding to the id with
+	 * {@link #request(int, Class, int, int, Object, long)}. Complete the
+	 * reply, now or later, with {@link Reply#send(Object)} or
+	 * {@link Reply#fail(Throwable)}.
+	 * 
+	 * <p>
+	 * By default, the request fails with an
+	 * {@link UnsupportedOperationException}.
 	 * 
 	 * @param id
-	 *            The id of the window, provided as a courtesy.
-	 * @param view
-	 *            The window about to be brought to the front.
-	 * @return Return true to cancel the window from being brought to the front,
-	 *         or false to continue.
-	 * @see #bringToFront(int)
+	 *            The id of your receiving window.
+	 * @param requestCode
+	 *            The sending window provided this request code to declare what
+	 *            kind of request is being sent.
+	 * @param data
+	 *            The object that was sent to your receiving window.
+	 * @param fromCls
+	 *            The sending window's class.
+	 * @param fromId
+	 *            The sending window's id.
+	 * @param reply
+	 *            Answers the request.
+	 */
+	public void onReceiveRequest(int id, int requestCode, Object data,
+			Class<? extends StandOutWindow> fromCls, int fromId, Reply reply) {
+		reply.fail(new UnsupportedOperationException("Window " + id
+				+ " does not answer requests with request code "
+				+ requestCode + "."));
+	}
+
+	/**
+	 * Implement this callback to be alerted when a window corresponding to the
+	 * id has received data sent to all windows of this class with
+	 * {@link #broadcastData(Context, Class, int, Bundle)} or
+	 * {@link #broadcastData(Context, Class, int, Object, WindowFilter)}. Every
+	 * receiving window gets the same instance of the data.
+	 * 
+	 * <p>
+	 * By default, the data is passed on to
+	 * {@link #onReceiveData(int, int, Bundle, Class, int)} or
+	 * {@link #onReceiveData(int, int, Object, Class, int)}, without a sender.
+	 * 
+	 * @param id
+	 *            The id of your receiving window.
+	 * @param window
+	 *            Your receiving window.
+	 * @param requestCode
+	 *            The sender provided this request code to declare what kind of
+	 *            data is being sent.
+	 * @param data
+	 *            The data that was sent to all windows.
+	 */
+	public void onReceiveBroadcast(int id, Window window, int requestCode,
+			Object data) {
+		if (data == null || data instanceof Bundle) {
+			onReceiveData(id, requestCode, (Bundle) data, null, DISREGARD_ID);
+		} else {
+			onReceiveData(id, requestCode, data, null, DISREGARD_ID);
+		}
+	}
+
+	/**
+	 * Implement this callback to be alerted when a window corresponding to the
+	 * id is about to be updated in the layout. This callback will occur before
+	 * the view is updated by the window manager.
+	 * 
+	 * @param id
+	 *            The id of the window, provided as a courtesy.
+	 * @param view
+	 *            The window about to be updated.
+	 * @param params
+	 *            The updated layout params.
+	 * @return Return true to cancel the window from being updated, or false to
+	 *         continue.
+	 * @see #updateViewLayout(int, Window, StandOutLayoutParams)
+	 */
+	public boolean onUpdate(int id, Window window, StandOutLayoutParams params) {
+		return false;
+	}
+
+	/**
+	 * Implement this callback to be alerted when a window corresponding to the
+	 * id is about to be bought to the front. This callback will occur before
+	 * the window is brought to the front by the window manager.
+	 * 
+	 * @param id
+	 *            The id of the window, provided as a courtesy.
+	 * @param view
+	 *            The window about to be brought to the front.
+	 * @return Return true to cancel the window from being brought to the front,
+	 *         or false to continue.
+	 * @see #bringToFront(int)
 	 */
 	public boolean onBringToFront(int id, Window window) {
 		return false;
@@ -1062,20 +2201,78 @@ public abstract class StandOutWindow extends Service {
 	 * Show or restore a window corresponding to the id. Return the window that
 	 * was shown/restored.
 	 * 
+	 * <p>
+	 * Windows are views and are only touched on the main thread. This method,
+	 * like {@link #hide(int)}, {@link #close(int)}, {@link #closeAll()},
+	 * {@link #bringToFront(int)}, {@link #focus(int)} and
+	 * {@link #unfocus(int)}, may be called from any thread. Called from
+	 * another thread, it posts itself to the main thread and returns right
+	 * away, with null or false as the result. Use {@link #showAsync(int)} or
+	 * {@link #submit(Callable)} to wait for the result.
+	 * 
+	 * <p>
+	 * The window is added to the window manager on the next pass of the main
+	 * loop, together with the other windows shown meanwhile. A window hidden
+	 * or closed before then is never added.
+	 * 
 	 * @param id
 	 *            The id of the window.
-	 * @return The window shown.
+	 * @return The window shown, or null if called from another thread.
 	 */
-	public final synchronized Window show(int id) {
+	public final Window show(final int id) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					show(id);
+				}
+			});
+			return null;
+		}
+
 		// get the window corresponding to the id
-		Window cachedWindow = getWindow(id);
+		return show(id, getWindow(id));
+	}
+
+	/**
+	 * Restore the hidden window of the handle, or focus it if it is already
+	 * shown.
+	 * 
+	 * @param handle
+	 *            The handle of the window.
+	 * @return The window shown.
+	 * @see #show(int)
+	 */
+	public final Window show(final WindowHandle handle) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					show(handle);
+				}
+			});
+			return null;
+		}
+
+		return show(handle.id, checkHandle(handle, "show"));
+	}
+
+	private Window show(int id, Window cachedWindow) {
 		final Window window;
 
-		// check cache first
+		// check cache first, then the pool of closed windows
 		if (cachedWindow != null) {
 			window = cachedWindow;
 		} else {
-			window = new Window(this, id);
+			window = obtainWindow(id);
+		}
+
+		// show once the window is done hiding or closing
+		if (window.visibility == Window.VISIBILITY_TRANSITION) {
+			enqueueOperation(id, OperationQueue.OP_SHOW);
+			return window;
 		}
 
 		// alert callbacks and cancel if instructed
@@ -1087,32 +2284,112 @@ public abstract class StandOutWindow extends Service {
 		// focus an already shown window
 		if (window.visibility == Window.VISIBILITY_VISIBLE) {
 			Log.d(TAG, "Window " + id + " is already shown.");
-			focus(id);
+			if (!mBatching) {
+				focus(id);
+			}
 			return window;
 		}
 
-		window.visibility = Window.VISIBILITY_VISIBLE;
+		// a restored window no longer needs its hidden notification
+		if (window.visibility == Window.VISIBILITY_GONE
+				&& getWindow(id) != null) {
+			mNotificationPoster.cancelHidden(id);
+		}
 
-		// get animation
-		Animation animation = getShowAnimation(id);
+		window.visibility = Window.VISIBILITY_VISIBLE;
 
 		// get the params corresponding to the id
 		StandOutLayoutParams params = window.getLayoutParams();
 
-		try {
-			// add the view to the window manager
-			mWindowManager.addView(window, params);
+		// newly shown windows are on top
+		sWindowStack.push(window);
+		indexWindow(window, params);
+		sWindowIndex.raise(window);
 
-			// animate
-			if (animation != null) {
-				window.getChildAt(0).startAnimation(animation);
-			}
-		} catch (Exception ex) {
-			ex.printStackTrace();
+		// add the view to the window manager before the next frame, unless
+		// the window is hidden or closed first
+		if (mPendingAdds.isEmpty()) {
+			mHandler.post(mAddPendingWindows);
 		}
+		mPendingAdds.add(window);
 
 		// add view to internal map
-		sWindowCache.putCache(id, getClass(), window);
+		sWindowCache.putCache(mSlot, id, window);
+
+		WindowEventStream.publish(WindowEvent.TYPE_SHOW, window);
+
+		// the batch updates the notification and focus once at the end
+		if (!mBatching) {
+			updatePersistentNotification(id);
+			focus(id);
+		}
+
+		return window;
+	}
+
+	/**
+	 * Add the windows shown since the last pass of the main loop to the window
+	 * manager, bottom to top, and start their show animations.
+	 */
+	private void addPendingWindows() {
+		if (mPendingAdds.isEmpty()) {
+			return;
+		}
+		Window[] windows = mPendingAdds
+				.toArray(new Window[mPendingAdds.size()]);
+		mPendingAdds.clear();
+
+		for (final Window window : windows) {
+			StandOutLayoutParams params = window.getLayoutParams();
+
+			try {
+				// add the view to the window manager
+				mWindowManager.addView(window, params);
+				window.onLayoutApplied(params);
+
+				// get animation, once the window is added. a cached animation
+				// stays in use until its transition ends
+				Animation animation = getShowAnimation(window.id);
+
+				// animate
+				if (animation != null) {
+					animation.setAnimationListener(new AnimationListener() {
+
+						@Override
+						public void onAnimationStart(Animation animation) {
+						}
+
+						@Override
+						public void onAnimationRepeat(Animation animation) {
+						}
+
+						@Override
+						public void onAnimationEnd(Animation animation) {
+							endTransition(window, animation);
+						}
+					});
+					startTransition(window, animation);
+				}
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Start the service in the foreground with the persistent notification of
+	 * the window corresponding to the id, or update the notification if the
+	 * service is already in the foreground.
+	 * 
+	 * @param id
+	 *            The id of the window that was just shown.
+	 */
+	private void updatePersistentNotification(int id) {
+		// later updates are debounced and posted off the main thread
+		if (startedForeground) {
+			mNotificationPoster.updatePersistent(id);
+			return;
+		}
 
 		// get the persistent notification
 		Notification notification = getPersistentNotification(id);
@@ -1122,32 +2399,65 @@ public abstract class StandOutWindow extends Service {
 			notification.flags = notification.flags
 					| Notification.FLAG_NO_CLEAR;
 
-			// only show notification if not shown before
-			if (!startedForeground) {
-				// tell Android system to show notification
-				startForeground(
-						getClass().hashCode() + ONGOING_NOTIFICATION_ID,
-						notification);
-				startedForeground = true;
-			} else {
-				// update notification if shown before
-				mNotificationManager.notify(getClass().hashCode()
-						+ ONGOING_NOTIFICATION_ID, notification);
-			}
+			// tell Android system to show notification
+			startForeground(getClass().hashCode() + ONGOING_NOTIFICATION_ID,
+					notification);
+			startedForeground = true;
+			mNotificationPoster.setForeground(true);
 		} else {
-			// notification can only be null if it was provided before
-			if (!startedForeground) {
-				throw new RuntimeException("Your StandOutWindow service must"
-						+ "provide a persistent notification."
-						+ "The notification prevents Android"
-						+ "from killing your service in low"
-						+ "memory situations.");
-			}
+			// the first notification cannot be null
+			throw new RuntimeException("Your StandOutWindow service must"
+					+ "provide a persistent notification."
+					+ "The notification prevents Android"
+					+ "from killing your service in low"
+					+ "memory situations.");
 		}
+	}
 
-		focus(id);
+	/**
+	 * Show or restore a window corresponding to the id from any thread.
+	 * 
+	 * @param id
+	 *            The id of the window.
+	 * @return A future completed with the window shown, or null if the
+	 *         implementation cancelled it.
+	 * @see #show(int)
+	 */
+	public final Future<Window> showAsync(final int id) {
+		return submit(new Callable<Window>() {
 
-		return window;
+			@Override
+			public Window call() {
+				return show(id);
+			}
+		});
+	}
+
+	/**
+	 * Run the task on the main thread, where windows may be touched. If called
+	 * on the main thread, the task runs right away.
+	 * 
+	 * @param task
+	 *            The task to run.
+	 * @return A future completed with the result of the task.
+	 */
+	public final <T> Future<T> submit(Callable<T> task) {
+		FutureTask<T> future = new FutureTask<T>(task);
+		if (isMainThread()) {
+			future.run();
+		} else {
+			mHandler.post(future);
+		}
+		return future;
+	}
+
+	/**
+	 * Returns whether the caller is running on the main thread.
+	 * 
+	 * @return True if windows may be touched by the caller.
+	 */
+	public static boolean isMainThread() {
+		return Looper.myLooper() == Looper.getMainLooper();
 	}
 
 	/**
@@ -1157,35 +2467,84 @@ public abstract class StandOutWindow extends Service {
 	 * @param id
 	 *            The id of the window.
 	 */
-	public final synchronized void hide(int id) {
+	public final void hide(final int id) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					hide(id);
+				}
+			});
+			return;
+		}
+
 		// get the view corresponding to the id
-		final Window window = getWindow(id);
+		hide(id, getWindow(id));
+	}
 
+	/**
+	 * Hide the window of the handle.
+	 * 
+	 * @param handle
+	 *            The handle of the window.
+	 * @see #hide(int)
+	 */
+	public final void hide(final WindowHandle handle) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					hide(handle);
+				}
+			});
+			return;
+		}
+
+		hide(handle.id, checkHandle(handle, "hide"));
+	}
+
+	private void hide(final int id, final Window window) {
 		if (window == null) {
 			throw new IllegalArgumentException("Tried to hide(" + id
 					+ ") a null window.");
 		}
 
-		// alert callbacks and cancel if instructed
-		if (onHide(id, window)) {
-			Log.d(TAG, "Window " + id + " hide cancelled by implementation.");
+		// hide once the window is done hiding or closing
+		if (window.visibility == Window.VISIBILITY_TRANSITION) {
+			enqueueOperation(id, OperationQueue.OP_HIDE);
 			return;
 		}
 
 		// ignore if window is already hidden
 		if (window.visibility == Window.VISIBILITY_GONE) {
 			Log.d(TAG, "Window " + id + " is already hidden.");
+			return;
+		}
+
+		// alert callbacks and cancel if instructed
+		if (onHide(id, window)) {
+			Log.d(TAG, "Window " + id + " hide cancelled by implementation.");
+			return;
 		}
 
 		// check if hide enabled
 		if (Utils.isSet(window.flags, StandOutFlags.FLAG_WINDOW_HIDE_ENABLE)) {
 			window.visibility = Window.VISIBILITY_TRANSITION;
+			mOperationQueues.put(id, new OperationQueue(
+					OperationQueue.OP_HIDE));
+
+			WindowEventStream.publish(WindowEvent.TYPE_HIDE, window);
+
+			sWindowStack.remove(window);
+			sWindowIndex.remove(window);
 
-			// get the hidden notification for this view
-			Notification notification = getHiddenNotification(id);
+			// a window that was never added has nothing to animate or remove
+			final boolean added = !mPendingAdds.remove(window);
 
 			// get animation
-			Animation animation = getHideAnimation(id);
+			Animation animation = added ? getHideAnimation(id) : null;
 
 			try {
 				// animate
@@ -1202,27 +2561,36 @@ public abstract class StandOutWindow extends Service {
 
 						@Override
 						public void onAnimationEnd(Animation animation) {
+							endTransition(window, animation);
+
 							// remove the window from the window manager
 							mWindowManager.removeView(window);
 							window.visibility = Window.VISIBILITY_GONE;
+
+							runQueuedOperations(id);
 						}
 					});
-					window.getChildAt(0).startAnimation(animation);
+					startTransition(window, animation);
 				} else {
 					// remove the window from the window manager
-					mWindowManager.removeView(window);
+					if (added) {
+						mWindowManager.removeView(window);
+					}
+					window.visibility = Window.VISIBILITY_GONE;
+
+					runQueuedOperations(id);
 				}
 			} catch (Exception ex) {
 				ex.printStackTrace();
 			}
 
-			// display the notification
-			notification.flags = notification.flags
-					| Notification.FLAG_NO_CLEAR
-					| Notification.FLAG_AUTO_CANCEL;
-
-			mNotificationManager.notify(getClass().hashCode() + id,
-					notification);
+			// display the hidden notification, or close the window if
+			// there is none. the close waits for the hide to finish
+			if (!mNotificationPoster.postHidden(id)) {
+				Log.d(TAG, "Window " + id
+						+ " has no hidden notification, closing it.");
+				close(id, window);
+			}
 
 		} else {
 			// if hide not enabled, close window
@@ -1236,16 +2604,53 @@ public abstract class StandOutWindow extends Service {
 	 * @param id
 	 *            The id of the window.
 	 */
-	public final synchronized void close(final int id) {
+	public final void close(final int id) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					close(id);
+				}
+			});
+			return;
+		}
+
 		// get the view corresponding to the id
-		final Window window = getWindow(id);
+		close(id, getWindow(id));
+	}
 
+	/**
+	 * Close the window of the handle. The handle becomes invalid.
+	 * 
+	 * @param handle
+	 *            The handle of the window.
+	 * @see #close(int)
+	 */
+	public final void close(final WindowHandle handle) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					close(handle);
+				}
+			});
+			return;
+		}
+
+		close(handle.id, checkHandle(handle, "close"));
+	}
+
+	private void close(final int id, final Window window) {
 		if (window == null) {
 			throw new IllegalArgumentException("Tried to close(" + id
 					+ ") a null window.");
 		}
 
+		// close once the window is done hiding
 		if (window.visibility == Window.VISIBILITY_TRANSITION) {
+			enqueueOperation(id, OperationQueue.OP_CLOSE);
 			return;
 		}
 
@@ -1256,14 +2661,54 @@ public abstract class StandOutWindow extends Service {
 		}
 
 		// remove hidden notification
-		mNotificationManager.cancel(getClass().hashCode() + id);
+		mNotificationPoster.cancelHidden(id);
+		mNotificationPoster.forgetPendingIntents(id);
+
+		// drop layout updates waiting for the next frame
+		mWindowAnimator.cancel(id);
+		mFrameScheduler.cancel(id);
 
+		// nobody will answer or wait for requests of this window
+		PendingRequest.cancelAll(getClass(), id);
+
+		WindowEventStream.publish(WindowEvent.TYPE_CLOSE, window);
+
+		boolean wasFocused = window.focused;
 		unfocus(window);
 
+		// unfocusing may have scheduled another update
+		mFrameScheduler.cancel(id);
+
+		// a hidden window is no longer in the window manager, and a window
+		// shown since the last pass of the main loop is not in it yet
+		final boolean wasShown = window.visibility == Window.VISIBILITY_VISIBLE
+				&& !mPendingAdds.remove(window);
+
 		window.visibility = Window.VISIBILITY_TRANSITION;
+		mOperationQueues.put(id, new OperationQueue(OperationQueue.OP_CLOSE));
+
+		// hand focus to the next window of this class below it. the stack
+		// is shared by every service in the process, whose windows this
+		// service does not own
+		Window next = null;
+		if (wasFocused) {
+			next = sWindowStack.below(window);
+			while (next != null
+					&& (next.cls != getClass()
+							|| next.visibility != Window.VISIBILITY_VISIBLE)) {
+				next = sWindowStack.below(next);
+			}
+		}
+
+		sWindowStack.remove(window);
+		sWindowIndex.remove(window);
+
+		if (next != null) {
+			setFocus(next, true);
+		}
 
 		// get animation
-		Animation animation = getCloseAnimation(id);
+		Animation animation = wasShown ? getCloseAnimation(id) : null;
 
 		// remove window
 		try {
@@ -1281,65 +2726,435 @@ public abstract class StandOutWindow extends Service {
 
 					@Override
 					public void onAnimationEnd(Animation animation) {
+						endTransition(window, animation);
+
 						// remove the window from the window manager
 						mWindowManager.removeView(window);
 						window.visibility = Window.VISIBILITY_GONE;
 
 						// remove view from internal map
-						sWindowCache.removeCache(id,
-								StandOutWindow.this.getClass());
+						sWindowCache.removeCache(mSlot, id);
+						retireMailbox(id);
+
+						// keep the window for reuse
+						recycleWindow(id, window);
 
 						// if we just released the last window, quit
-						if (getExistingIds().size() == 0) {
+						if (sWindowCache.getCacheSize(mSlot) == 0) {
 							// tell Android to remove the persistent
 							// notification
 							// the Service will be shutdown by the system on low
 							// memory
 							startedForeground = false;
+							mNotificationPoster.setForeground(false);
 							stopForeground(true);
 						}
+
+						runQueuedOperations(id);
 					}
 				});
-				window.getChildAt(0).startAnimation(animation);
+				startTransition(window, animation);
 			} else {
 				// remove the window from the window manager
-				mWindowManager.removeView(window);
+				if (wasShown) {
+					mWindowManager.removeView(window);
+				}
+				window.visibility = Window.VISIBILITY_GONE;
 
 				// remove view from internal map
-				sWindowCache.removeCache(id, getClass());
+				sWindowCache.removeCache(mSlot, id);
+				retireMailbox(id);
+
+				// keep the window for reuse
+				recycleWindow(id, window);
 
 				// if we just released the last window, quit
-				if (sWindowCache.getCacheSize(getClass()) == 0) {
+				if (sWindowCache.getCacheSize(mSlot) == 0) {
 					// tell Android to remove the persistent notification
 					// the Service will be shutdown by the system on low memory
 					startedForeground = false;
+					mNotificationPoster.setForeground(false);
 					stopForeground(true);
 				}
+
+				runQueuedOperations(id);
+			}
+		} catch (Exception ex) {
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Play a show, hide or close animation on the content of the window,
+	 * drawn from a bitmap until {@link #endTransition(Window, Animation)}.
+	 * 
+	 * @param window
+	 *            The window.
+	 * @param animation
+	 *            The animation to play.
+	 */
+	private void startTransition(Window window, Animation animation) {
+		View content = window.getChildAt(0);
+
+		// an animation that is replaced never ends
+		Animation previous = content.getAnimation();
+		if (previous != null && previous != animation) {
+			mAnimationCache.release(previous, content);
+		}
+
+		animation.reset();
+		mAnimationCache.onStart(animation, content);
+		window.setTransitionCacheEnabled(true);
+		content.startAnimation(animation);
+	}
+
+	/**
+	 * Draw the content of the window normally again and give the animation
+	 * back to the cache. Call from onAnimationEnd().
+	 * 
+	 * @param window
+	 *            The window.
+	 * @param animation
+	 *            The animation that ended.
+	 */
+	private void endTransition(Window window, final Animation animation) {
+		window.setTransitionCacheEnabled(false);
+
+		// the animation is still finishing, reuse it afterwards
+		final View content = window.getChildAt(0);
+		mHandler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				mAnimationCache.release(animation, content);
+			}
+		});
+	}
+
+	/**
+	 * Queue the operation until the window corresponding to this id is done
+	 * hiding or closing.
+	 * 
+	 * @param id
+	 *            The id of the window.
+	 * @param operation
+	 *            The operation requested during the transition.
+	 */
+	private void enqueueOperation(int id, int operation) {
+		OperationQueue queue = mOperationQueues.get(id);
+		if (queue != null) {
+			queue.enqueue(operation);
+		}
+	}
+
+	/**
+	 * Run the operations requested while the window corresponding to this id
+	 * was hiding or closing, then apply the last requested layout.
+	 * 
+	 * @param id
+	 *            The id of the window whose transition just ended.
+	 */
+	private void runQueuedOperations(int id) {
+		OperationQueue queue = mOperationQueues.get(id);
+		if (queue == null) {
+			return;
+		}
+		mOperationQueues.remove(id);
+
+		int operation;
+		while ((operation = queue.poll()) != OperationQueue.OP_NONE) {
+			switch (operation) {
+				case OperationQueue.OP_SHOW:
+					show(id);
+					break;
+				case OperationQueue.OP_HIDE:
+					if (getWindow(id) != null) {
+						hide(id);
+					}
+					break;
+				case OperationQueue.OP_CLOSE:
+					if (getWindow(id) != null) {
+						close(id);
+					}
+					break;
+			}
+
+			// the operation started another transition, which takes over the
+			// rest of the queue
+			OperationQueue next = mOperationQueues.get(id);
+			if (next != null) {
+				while ((operation = queue.poll()) != OperationQueue.OP_NONE) {
+					next.enqueue(operation);
+				}
+				if (queue.getPendingLayout() != null) {
+					next.setPendingLayout(queue.getPendingLayout());
+				}
+				return;
+			}
+		}
+
+		StandOutLayoutParams params = queue.getPendingLayout();
+		if (params != null) {
+			Window window = getWindow(id);
+			if (window != null
+					&& window.visibility == Window.VISIBILITY_VISIBLE) {
+				updateViewLayout(id, params);
+			}
+		}
+	}
+
+	/**
+	 * Close all existing windows in one pass. Unlike {@link #close(int)}, no
+	 * close animation is played and focus is not handed to another window.
+	 * Notifications are cancelled together and the service leaves the
+	 * foreground once. {@link #onClose(int, Window)} is still called for
+	 * every window.
+	 */
+	public final void closeAll() {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					closeAll();
+				}
+			});
+			return;
+		}
+
+		// alert callbacks and cancel if instructed
+		if (onCloseAll()) {
+			Log.w(TAG, "Windows close all cancelled by implementation.");
+			return;
+		}
+
+		// snapshot ids to avoid concurrent modification
+		closeInBulk(getExistingIdArray());
+	}
+
+	/**
+	 * Tear down the windows corresponding to the ids without animations or
+	 * per-window focus changes.
+	 * 
+	 * @param ids
+	 *            The ids of the windows.
+	 */
+	private void closeInBulk(int[] ids) {
+		ArrayList<Window> closing = new ArrayList<Window>(ids.length);
+		for (int id : ids) {
+			Window window = getWindow(id);
+			if (window == null) {
+				continue;
+			}
+
+			// a window that is hiding closes once it is done
+			if (window.visibility == Window.VISIBILITY_TRANSITION) {
+				enqueueOperation(id, OperationQueue.OP_CLOSE);
+				continue;
+			}
+
+			// alert callbacks and cancel if instructed
+			if (onClose(id, window)) {
+				Log.w(TAG, "Window " + id
+						+ " close cancelled by implementation.");
+				continue;
+			}
+
+			closing.add(window);
+		}
+
+		if (closing.isEmpty()) {
+			return;
+		}
+
+		int[] closedIds = new int[closing.size()];
+		for (int i = 0; i < closedIds.length; i++) {
+			Window window = closing.get(i);
+			int id = window.id;
+			closedIds[i] = id;
+
+			mWindowAnimator.cancel(id);
+			mFrameScheduler.cancel(id);
+			PendingRequest.cancelAll(getClass(), id);
+
+			WindowEventStream.publish(WindowEvent.TYPE_CLOSE, window);
+
+			if (window.visibility == Window.VISIBILITY_VISIBLE
+					&& !mPendingAdds.remove(window)) {
+				try {
+					mWindowManager.removeView(window);
+				} catch (Exception ex) {
+					ex.printStackTrace();
+				}
+			}
+			window.visibility = Window.VISIBILITY_GONE;
+			sWindowStack.remove(window);
+			sWindowIndex.remove(window);
+
+			// no layout update is made for a window that is gone
+			if (window.focused) {
+				unfocus(window);
+				mFrameScheduler.cancel(id);
+			}
+			if (sFocusedWindow == window) {
+				sFocusedWindow = null;
+			}
+
+			sWindowCache.removeCache(mSlot, id);
+			retireMailbox(id);
+			recycleWindow(id, window);
+		}
+
+		// remove hidden notifications together
+		mNotificationPoster.cancelHidden(closedIds);
+		mNotificationPoster.forgetPendingIntents(closedIds);
+
+		// leave the foreground once
+		if (sWindowCache.getCacheSize(mSlot) == 0 && startedForeground) {
+			startedForeground = false;
+			mNotificationPoster.setForeground(false);
+			stopForeground(true);
+		}
+	}
+
+	/**
+	 * Show or restore the windows corresponding to the ids in one pass. The
+	 * persistent notification is updated and the last shown window is focused
+	 * once, after all windows are shown.
+	 * 
+	 * @param ids
+	 *            The ids of the windows.
+	 * @see #show(int)
+	 */
+	public final void showMany(final int... ids) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					showMany(ids);
+				}
+			});
+			return;
+		}
+
+		int lastShownId = 0;
+		boolean shown = false;
+
+		mBatching = true;
+		try {
+			for (int id : ids) {
+				Window window = show(id, getWindow(id));
+				if (window != null
+						&& window.visibility == Window.VISIBILITY_VISIBLE) {
+					lastShownId = id;
+					shown = true;
+				}
+			}
+		} finally {
+			mBatching = false;
+		}
+
+		if (shown) {
+			onBatchShown(lastShownId);
+		}
+	}
+
+	/**
+	 * Update the persistent notification and focus once, after many windows
+	 * were shown in one pass.
+	 * 
+	 * @param lastShownId
+	 *            The id of the last window shown.
+	 */
+	void onBatchShown(int lastShownId) {
+		updatePersistentNotification(lastShownId);
+		focus(lastShownId);
+	}
+
+	/**
+	 * Hide the existing windows corresponding to the ids in one pass. Ids
+	 * without a window are skipped.
+	 * 
+	 * @param ids
+	 *            The ids of the windows.
+	 * @see #hide(int)
+	 */
+	public final void hideMany(final int... ids) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					hideMany(ids);
+				}
+			});
+			return;
+		}
+
+		for (int id : ids) {
+			Window window = getWindow(id);
+			if (window == null) {
+				Log.w(TAG, "Tried to hide(" + id + ") a null window.");
+				continue;
+			}
+			hide(id, window);
+		}
+	}
+
+	/**
+	 * Close the existing windows corresponding to the ids in one pass. Ids
+	 * without a window are skipped.
+	 * 
+	 * @param ids
+	 *            The ids of the windows.
+	 * @see #close(int)
+	 */
+	public final void closeMany(final int... ids) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					closeMany(ids);
+				}
+			});
+			return;
+		}
+
+		for (int id : ids) {
+			Window window = getWindow(id);
+			if (window == null) {
+				Log.w(TAG, "Tried to close(" + id + ") a null window.");
+				continue;
 			}
-		} catch (Exception ex) {
-			ex.printStackTrace();
+			close(id, window);
 		}
 	}
 
-	/**
-	 * Close all existing windows.
-	 */
-	public final synchronized void closeAll() {
-		// alert callbacks and cancel if instructed
-		if (onCloseAll()) {
-			Log.w(TAG, "Windows close all cancelled by implementation.");
-			return;
+	private static int[] getIdsExtra(Intent intent) {
+		int[] ids = intent.getIntArrayExtra("ids");
+		if (ids == null) {
+			return new int[0];
 		}
 
-		// add ids to temporary set to avoid concurrent modification
-		LinkedList<Integer> ids = new LinkedList<Integer>();
-		for (int id : getExistingIds()) {
-			ids.add(id);
+		for (int id : ids) {
+			checkNotificationId(id);
 		}
+		return ids;
+	}
 
-		// close each window
-		for (int id : ids) {
-			close(id);
+	static void checkNotificationId(int id) {
+		// this will interfere with getPersistentNotification()
+		if (id == ONGOING_NOTIFICATION_ID) {
+			throw new RuntimeException(
+					"ID cannot equals StandOutWindow.ONGOING_NOTIFICATION_ID");
+		}
+
+		// this will interfere with getHiddenSummaryNotification()
+		if (id == HIDDEN_SUMMARY_NOTIFICATION_ID) {
+			throw new RuntimeException(
+					"ID cannot equals StandOutWindow.HIDDEN_SUMMARY_NOTIFICATION_ID");
 		}
 	}
 
@@ -1369,14 +3184,101 @@ public abstract class StandOutWindow extends Service {
 				getClass(), fromId);
 	}
 
+	/**
+	 * Send an object by reference to a new or existing window of a
+	 * {@link StandOutWindow} in the same process. The recipient receives it on
+	 * its main thread in
+	 * {@link #onReceiveData(int, int, Object, Class, int)}.
+	 * 
+	 * @param fromId
+	 *            Provide the id of the sending window if you want a result.
+	 * @param toCls
+	 *            The Service's class extending {@link StandOutWindow} that is
+	 *            managing the receiving window.
+	 * @param toId
+	 *            The id of the receiving window.
+	 * @param requestCode
+	 *            Provide a request code to declare what kind of data is being
+	 *            sent.
+	 * @param data
+	 *            The object to be sent to the receiving window.
+	 * @see #sendData(Context, Class, int, int, Object, Class, int)
+	 */
+	public final void sendData(int fromId,
+			Class<? extends StandOutWindow> toCls, int toId, int requestCode,
+			Object data) {
+		StandOutWindow.sendData(this, toCls, toId, requestCode, data,
+				getClass(), fromId);
+	}
+
+	/**
+	 * Send the same object to every shown or hidden window of a
+	 * {@link StandOutWindow} in the same process, in one pass.
+	 * 
+	 * @param toCls
+	 *            The Service's class extending {@link StandOutWindow} that is
+	 *            managing the receiving windows.
+	 * @param requestCode
+	 *            Provide a request code to declare what kind of data is being
+	 *            sent.
+	 * @param data
+	 *            The data to be sent to the receiving windows.
+	 * @see #broadcastData(Context, Class, int, Object, WindowFilter)
+	 */
+	public final void broadcastData(Class<? extends StandOutWindow> toCls,
+			int requestCode, Object data) {
+		StandOutWindow.broadcastData(this, toCls, requestCode, data, null);
+	}
+
+	/**
+	 * Send a request to a new or existing window of a {@link StandOutWindow}
+	 * in the same process, and get a future for its reply.
+	 * 
+	 * @param fromId
+	 *            The id of the sending window.
+	 * @param toCls
+	 *            The Service's class extending {@link StandOutWindow} that is
+	 *            managing the receiving window.
+	 * @param toId
+	 *            The id of the receiving window.
+	 * @param requestCode
+	 *            Provide a request code to declare what kind of request is
+	 *            being sent.
+	 * @param data
+	 *            The object to be sent to the receiving window.
+	 * @param timeoutMillis
+	 *            The time to wait for the reply, or 0 to wait until the reply
+	 *            arrives or the request is cancelled.
+	 * @return The future reply.
+	 * @see #request(Context, Class, int, int, Object, Class, int, long)
+	 */
+	public final PendingRequest request(int fromId,
+			Class<? extends StandOutWindow> toCls, int toId, int requestCode,
+			Object data, long timeoutMillis) {
+		return StandOutWindow.request(this, toCls, toId, requestCode, data,
+				getClass(), fromId, timeoutMillis);
+	}
+
 	/**
 	 * Bring the window corresponding to this id in front of all other windows.
-	 * The window may flicker as it is removed and restored by the system.
+	 * Does nothing if the window is already in front. Otherwise, the window may
+	 * flicker as it is removed and restored by the system.
 	 * 
 	 * @param id
 	 *            The id of the window to bring to the front.
 	 */
-	public final synchronized void bringToFront(int id) {
+	public final void bringToFront(final int id) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					bringToFront(id);
+				}
+			});
+			return;
+		}
+
 		Window window = getWindow(id);
 		if (window == null) {
 			throw new IllegalArgumentException("Tried to bringToFront(" + id
@@ -1392,6 +3294,11 @@ public abstract class StandOutWindow extends Service {
 			return;
 		}
 
+		// nothing to reorder
+		if (sWindowStack.isTop(window)) {
+			return;
+		}
+
 		// alert callbacks and cancel if instructed
 		if (onBringToFront(id, window)) {
 			Log.w(TAG, "Window " + id
@@ -1401,17 +3308,31 @@ public abstract class StandOutWindow extends Service {
 
 		StandOutLayoutParams params = window.getLayoutParams();
 
-		// remove from window manager then add back
-		try {
-			mWindowManager.removeView(window);
-		} catch (Exception ex) {
-			ex.printStackTrace();
-		}
-		try {
-			mWindowManager.addView(window, params);
-		} catch (Exception ex) {
-			ex.printStackTrace();
+		if (mPendingAdds.remove(window)) {
+			// not added yet, so adding it last puts it on top
+			mPendingAdds.add(window);
+			sWindowStack.push(window);
+			indexWindow(window, params);
+			sWindowIndex.raise(window);
+		} else {
+			// remove from window manager then add back
+			try {
+				mWindowManager.removeView(window);
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
+			try {
+				mWindowManager.addView(window, params);
+				window.onLayoutApplied(params);
+				sWindowStack.push(window);
+				indexWindow(window, params);
+				sWindowIndex.raise(window);
+			} catch (Exception ex) {
+				ex.printStackTrace();
+			}
 		}
+
+		WindowEventStream.publish(WindowEvent.TYPE_BRING_TO_FRONT, window);
 	}
 
 	/**
@@ -1423,9 +3344,46 @@ public abstract class StandOutWindow extends Service {
 	 *            The id of the window.
 	 * @return True if focus changed successfully, false if it failed.
 	 */
-	public final synchronized boolean focus(int id) {
+	public final boolean focus(final int id) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					focus(id);
+				}
+			});
+			return false;
+		}
+
+		return focus(id, getWindow(id));
+	}
+
+	/**
+	 * Request focus for the window of the handle.
+	 * 
+	 * @param handle
+	 *            The handle of the window.
+	 * @return True if focus changed successfully, false if it failed.
+	 * @see #focus(int)
+	 */
+	public final boolean focus(final WindowHandle handle) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					focus(handle);
+				}
+			});
+			return false;
+		}
+
+		return focus(handle.id, checkHandle(handle, "focus"));
+	}
+
+	private boolean focus(int id, final Window window) {
 		// check if that window is focusable
-		final Window window = getWindow(id);
 		if (window == null) {
 			throw new IllegalArgumentException("Tried to focus(" + id
 					+ ") a null window.");
@@ -1438,12 +3396,22 @@ public abstract class StandOutWindow extends Service {
 				unfocus(sFocusedWindow);
 			}
 
-			return window.onFocus(true);
+			return setFocus(window, true);
 		}
 
 		return false;
 	}
 
+	private static boolean setFocus(Window window, boolean focus) {
+		if (!window.onFocus(focus)) {
+			return false;
+		}
+
+		WindowEventStream.publish(focus ? WindowEvent.TYPE_FOCUS
+				: WindowEvent.TYPE_UNFOCUS, window);
+		return true;
+	}
+
 	/**
 	 * Remove focus for the window corresponding to this id. Once a window is
 	 * unfocused, it will stop receiving key events.
@@ -1452,23 +3420,70 @@ public abstract class StandOutWindow extends Service {
 	 *            The id of the window.
 	 * @return True if focus changed successfully, false if it failed.
 	 */
-	public final synchronized boolean unfocus(int id) {
+	public final boolean unfocus(final int id) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					unfocus(id);
+				}
+			});
+			return false;
+		}
+
 		Window window = getWindow(id);
 		return unfocus(window);
 	}
 
 	/**
 	 * Courtesy method for your implementation to use if you want to. Gets a
-	 * unique id to assign to a new window.
+	 * unique id to assign to a new window. Ids of closed windows are reused,
+	 * and ids reserved with {@link #reserveId(int)} are never returned.
 	 * 
 	 * @return The unique id.
 	 */
 	public final int getUniqueId() {
-		int unique = DEFAULT_ID;
-		for (int id : getExistingIds()) {
-			unique = Math.max(unique, id + 1);
+		return sWindowCache.getUniqueId(getClass());
+	}
+
+	/**
+	 * Keep the id from being returned by {@link #getUniqueId()}. Use this for
+	 * ids that have a special meaning in your implementation. Ids below
+	 * {@link #DEFAULT_ID}, such as {@link #DISREGARD_ID} and
+	 * {@link #ONGOING_NOTIFICATION_ID}, are never returned anyway.
+	 * 
+	 * @param id
+	 *            The id to reserve.
+	 */
+	public final void reserveId(int id) {
+		sWindowCache.reserveId(id, getClass());
+	}
+
+	/**
+	 * Build idle windows ahead of time and keep them in the window pool, so
+	 * that the next windows shown do not have to be built on demand. Call this
+	 * from {@link #onCreate()} after calling through to the super class.
+	 * 
+	 * <p>
+	 * The windows are built for {@link #DEFAULT_ID}, so
+	 * {@link #getParams(int, Window)}, {@link #getFlags(int)} and
+	 * {@link #createAndAttachView(int, FrameLayout)} must handle that id. When
+	 * a pooled window is shown, it is rebound to the id it is shown for and
+	 * {@link #onRebind(int, Window)} is called, like any other pooled window.
+	 * 
+	 * <p>
+	 * Does nothing unless {@link #getWindowPoolSize()} is greater than 0.
+	 * 
+	 * @param count
+	 *            The number of windows to build. The pool will not grow beyond
+	 *            {@link #getWindowPoolSize()}.
+	 */
+	public final void prewarm(int count) {
+		// the ids of the windows to come are not known yet
+		for (int i = 0; i < count && !mWindowPool.isFull(); i++) {
+			mWindowPool.offer(new Window(this, DEFAULT_ID));
 		}
-		return unique;
 	}
 
 	/**
@@ -1483,11 +3498,14 @@ public abstract class StandOutWindow extends Service {
 	 *         closed.
 	 */
 	public final boolean isExistingId(int id) {
-		return sWindowCache.isCached(id, getClass());
+		return sWindowCache.isCached(mSlot, id);
 	}
 
 	/**
-	 * Return the ids of all shown or hidden windows.
+	 * Return the ids of all shown or hidden windows. Prefer
+	 * {@link #getExistingIdArray()} or
+	 * {@link #forEachWindow(WindowCache.WindowConsumer)}, which do not box
+	 * every id.
 	 * 
 	 * @return A set of ids, or an empty set.
 	 */
@@ -1495,6 +3513,28 @@ public abstract class StandOutWindow extends Service {
 		return sWindowCache.getCacheIds(getClass());
 	}
 
+	/**
+	 * Return a snapshot of the ids of all shown or hidden windows, in
+	 * ascending order. It is safe to close windows while iterating over it.
+	 * 
+	 * @return An array of ids, or an empty array.
+	 */
+	public final int[] getExistingIdArray() {
+		return sWindowCache.getCacheIdArray(mSlot);
+	}
+
+	/**
+	 * Call the consumer for every shown or hidden window, in ascending order
+	 * of ids. The consumer sees the windows that existed when the iteration
+	 * started, even if it shows or closes windows.
+	 * 
+	 * @param consumer
+	 *            The callback.
+	 */
+	public final void forEachWindow(WindowCache.WindowConsumer consumer) {
+		sWindowCache.forEachWindow(mSlot, consumer);
+	}
+
 	/**
 	 * Return the window corresponding to the id, if it exists in cache. The
 	 * window will not be created with
@@ -1506,7 +3546,40 @@ public abstract class StandOutWindow extends Service {
 	 * @return The window if it is shown/hidden, or null if it is closed.
 	 */
 	public final Window getWindow(int id) {
-		return sWindowCache.getCache(id, getClass());
+		return sWindowCache.getCache(mSlot, id);
+	}
+
+	/**
+	 * Return the handle of the window corresponding to the id. Keep the handle
+	 * to call {@link #show(WindowHandle)}, {@link #hide(WindowHandle)},
+	 * {@link #close(WindowHandle)} and {@link #focus(WindowHandle)} without
+	 * looking up the window again.
+	 * 
+	 * @param id
+	 *            The id of the window.
+	 * @return The handle if the window is shown/hidden, or null if it is
+	 *         closed.
+	 */
+	public final WindowHandle getHandle(int id) {
+		return sWindowCache.getHandle(mSlot, id);
+	}
+
+	/**
+	 * Return the window of the handle, making sure the handle belongs to this
+	 * implementation.
+	 * 
+	 * @param handle
+	 *            The handle of the window.
+	 * @param operation
+	 *            The name of the calling method, used in the error message.
+	 * @return The window, or null if it was closed.
+	 */
+	private Window checkHandle(WindowHandle handle, String operation) {
+		if (handle.slot != mSlot) {
+			throw new IllegalArgumentException("Tried to " + operation + "("
+					+ handle + ") a window of another class.");
+		}
+		return handle.window;
 	}
 
 	/**
@@ -1588,6 +3661,9 @@ public abstract class StandOutWindow extends Service {
 
 		switch (event.getAction()) {
 			case MotionEvent.ACTION_DOWN:
+				// the user takes over from any animation
+				mWindowAnimator.cancel(id);
+
 				window.touchInfo.lastX = (int) event.getRawX();
 				window.touchInfo.lastY = (int) event.getRawY();
 
@@ -1668,6 +3744,9 @@ public abstract class StandOutWindow extends Service {
 
 		switch (event.getAction()) {
 			case MotionEvent.ACTION_DOWN:
+				// the user takes over from any animation
+				mWindowAnimator.cancel(id);
+
 				window.touchInfo.lastX = (int) event.getRawX();
 				window.touchInfo.lastY = (int) event.getRawY();
 
@@ -1704,6 +3783,49 @@ public abstract class StandOutWindow extends Service {
 		return true;
 	}
 
+	/**
+	 * Return a window for the id, reusing a pooled window if possible.
+	 * 
+	 * @param id
+	 *            The id of the window.
+	 * @return A window that is not attached to the window manager.
+	 */
+	private Window obtainWindow(int id) {
+		Window window = mWindowPool.obtain(id);
+
+		// a window with different flags has different decorations
+		if (window == null || window.flags != getFlags(id)) {
+			return new Window(this, id);
+		}
+
+		window.rebind(id);
+		onRebind(id, window);
+		return window;
+	}
+
+	/**
+	 * Keep the closed window in the pool for reuse, unless the pool is full or
+	 * the implementation declines.
+	 * 
+	 * @param id
+	 *            The id of the closed window.
+	 * @param window
+	 *            The closed window.
+	 */
+	private void recycleWindow(int id, Window window) {
+		if (mWindowPool.isFull()) {
+			return;
+		}
+
+		// alert callbacks and cancel if instructed
+		if (onRecycle(id, window)) {
+			Log.d(TAG, "Window " + id + " recycle cancelled by implementation.");
+			return;
+		}
+
+		mWindowPool.offer(window);
+	}
+
 	/**
 	 * Remove focus for the window, which could belong to another application.
 	 * Since we don't allow windows from different applications to directly
@@ -1715,12 +3837,23 @@ public abstract class StandOutWindow extends Service {
 	 *            The window to unfocus.
 	 * @return True if focus changed successfully, false if it failed.
 	 */
-	public synchronized boolean unfocus(Window window) {
+	public boolean unfocus(final Window window) {
+		if (!isMainThread()) {
+			mHandler.post(new Runnable() {
+
+				@Override
+				public void run() {
+					unfocus(window);
+				}
+			});
+			return false;
+		}
+
 		if (window == null) {
 			throw new IllegalArgumentException(
 					"Tried to unfocus a null window.");
 		}
-		return window.onFocus(false);
+		return setFocus(window, false);
 	}
 
 	/**
@@ -1743,7 +3876,17 @@ public abstract class StandOutWindow extends Service {
 			return;
 		}
 
+		// apply the last update once the window is shown again
 		if (window.visibility == Window.VISIBILITY_TRANSITION) {
+			OperationQueue queue = mOperationQueues.get(id);
+			if (queue != null) {
+				queue.setPendingLayout(params);
+			}
+			return;
+		}
+
+		// skip updates that would not change the window
+		if (!window.isLayoutChanged(params)) {
 			return;
 		}
 
@@ -1753,12 +3896,140 @@ public abstract class StandOutWindow extends Service {
 			return;
 		}
 
+		boolean moved = window.isPositionChanged(params);
+		boolean resized = window.isSizeChanged(params);
+
 		try {
 			window.setLayoutParams(params);
-			mWindowManager.updateViewLayout(window, params);
+			// a window waiting to be added is added with these params
+			if (!mPendingAdds.contains(window)) {
+				mWindowManager.updateViewLayout(window, params);
+				window.onLayoutApplied(params);
+			}
 		} catch (Exception ex) {
 			ex.printStackTrace();
 		}
+
+		if (moved || resized) {
+			indexWindow(window, params);
+		}
+
+		if (moved) {
+			WindowEventStream.publish(WindowEvent.TYPE_MOVE, window);
+		}
+		if (resized) {
+			WindowEventStream.publish(WindowEvent.TYPE_RESIZE, window);
+		}
+	}
+
+	/**
+	 * Update the window corresponding to this id with the given params on the
+	 * next display frame. Multiple calls for the same window within one frame
+	 * result in a single {@link #updateViewLayout(int, StandOutLayoutParams)}.
+	 * 
+	 * <p>
+	 * This is what {@link Window.Editor#commit()} uses. Call
+	 * {@link #updateViewLayout(int, StandOutLayoutParams)} directly if the
+	 * update must be applied immediately.
+	 * 
+	 * @param id
+	 *            The id of the window.
+	 * @param params
+	 *            The updated layout params to apply.
+	 */
+	public void scheduleViewLayout(int id, StandOutLayoutParams params) {
+		mFrameScheduler.scheduleLayout(id, params);
+	}
+
+	/**
+	 * Returns the index of the screen rectangles of all shown windows in this
+	 * process, for hit-testing, overlap and snapping queries that do not scan
+	 * every window. Rectangles are in the coordinates of
+	 * {@link StandOutLayoutParams} x and y. The windows are in their on-screen
+	 * z-order.
+	 * 
+	 * <p>
+	 * The index is kept up to date by {@link #show(int)}, {@link #hide(int)},
+	 * {@link #close(int)}, {@link #bringToFront(int)} and
+	 * {@link #updateViewLayout(int, StandOutLayoutParams)}. Only use it on the
+	 * main thread.
+	 * 
+	 * @return The index.
+	 */
+	public static WindowIndex<Window> getWindowIndex() {
+		return sWindowIndex;
+	}
+
+	/**
+	 * Update the rectangle of the window in {@link #getWindowIndex()} after
+	 * its size changed. Called by the window when it is laid out, since the
+	 * size of a window with a fill or wrap width or height is only known then.
+	 * Windows that are not shown are left out of the index.
+	 * 
+	 * @param window
+	 *            The window whose size changed.
+	 */
+	public final void onWindowSizeChanged(Window window) {
+		if (sWindowIndex.contains(window)) {
+			indexWindow(window, window.getLayoutParams());
+		}
+	}
+
+	// index the window at the geometry of the params
+	private void indexWindow(Window window, StandOutLayoutParams params) {
+		int width = params.width;
+		int height = params.height;
+
+		// fill and wrap sizes are only known once the window is laid out.
+		// until then, assume the most the window can cover, the display, and
+		// let onWindowSizeChanged() correct it
+		if (width < 0 || height < 0) {
+			Display display = mWindowManager.getDefaultDisplay();
+			if (width < 0) {
+				width = window.getWidth() > 0 ? window.getWidth() : display
+						.getWidth();
+			}
+			if (height < 0) {
+				height = window.getHeight() > 0 ? window.getHeight() : display
+						.getHeight();
+			}
+		}
+
+		sWindowIndex.put(window, params.x, params.y, params.x + width,
+				params.y + height);
+	}
+
+	/**
+	 * Returns the animator that moves and resizes the windows of this
+	 * implementation over several frames. {@link Window.Editor#animate()}
+	 * uses it.
+	 * 
+	 * <p>
+	 * Touching a window to move or resize it cancels its animation. Layout
+	 * changes made with {@link #updateViewLayout(int, StandOutLayoutParams)}
+	 * while the window animates are overwritten on the next frame.
+	 * 
+	 * @return The animator.
+	 */
+	public WindowAnimator getWindowAnimator() {
+		return mWindowAnimator;
+	}
+
+	/**
+	 * Decides which windows receive a broadcast.
+	 * 
+	 * @see StandOutWindow#broadcastData(Context, Class, int, Object,
+	 *      WindowFilter)
+	 */
+	public interface WindowFilter {
+		/**
+		 * @param id
+		 *            The id of the window.
+		 * @param window
+		 *            The window.
+		 * @return True if the window should receive the broadcast.
+		 */
+		boolean accept(int id, Window window);
 	}
 
 	/**
@@ -0,0 +1,344 @@
+package wei.mark.standout;
+
+import java.util.ArrayList;
+
+import wei.mark.standout.StandOutWindow.StandOutLayoutParams;
+import android.os.SystemClock;
+import android.util.SparseArray;
+import android.view.animation.AccelerateDecelerateInterpolator;
+import android.view.animation.Interpolator;
+
+/**
+ * Animates the position and size of the windows of a {@link StandOutWindow}.
+ * View animations only move the content inside a window; this moves the
+ * window itself.
+ *
+ * <p>
+ * Every animating window of the service is stepped from one frame listener
+ * of the {@link FrameScheduler}, and its layout is applied together with the
+ * other updates of that frame. A window is therefore laid out at most once
+ * per frame, however many animations and edits touch it.
+ *
+ * <p>
+ * An animation either runs for a fixed duration along an
+ * {@link Interpolator}, or follows a {@link Spring} until it comes to rest.
+ * Starting a new animation on an animating window retargets it from where it
+ * is, keeping its velocity if both are springs.
+ *
+ * <p>
+ * This class must only be used from the main thread.
+ */
+public class WindowAnimator implements FrameScheduler.FrameListener {
+	/**
+	 * The duration used by {@link wei.mark.standout.ui.Window.Editor#animate()}.
+	 */
+	public static final long DEFAULT_DURATION_MILLIS = 250;
+
+	/**
+	 * A damped spring pulling each of x, y, width and height to its target.
+	 */
+	public static class Spring {
+		public static final float STIFFNESS_HIGH = 10000f;
+		public static final float STIFFNESS_MEDIUM = 1500f;
+		public static final float STIFFNESS_LOW = 200f;
+
+		public static final float DAMPING_RATIO_NO_BOUNCY = 1f;
+		public static final float DAMPING_RATIO_LOW_BOUNCY = 0.75f;
+		public static final float DAMPING_RATIO_MEDIUM_BOUNCY = 0.5f;
+
+		final float stiffness;
+		final float damping;
+
+		/**
+		 * @param stiffness
+		 *            How hard the spring pulls, per pixel of distance. Must be
+		 *            positive.
+		 * @param dampingRatio
+		 *            1 to come to rest without overshooting, less to bounce.
+		 *            Must be positive.
+		 */
+		public Spring(float stiffness, float dampingRatio) {
+			if (stiffness <= 0 || dampingRatio <= 0) {
+				throw new IllegalArgumentException(
+						"Stiffness and damping ratio must be positive.");
+			}
+			this.stiffness = stiffness;
+			this.damping = 2 * dampingRatio * (float) Math.sqrt(stiffness);
+		}
+	}
+
+	// longest step of the spring simulation, for stability
+	private static final float MAX_SPRING_STEP_SECONDS = 0.004f;
+
+	// a spring is at rest when it is this close and this slow
+	private static final float REST_DISTANCE = 0.5f;
+	private static final float REST_VELOCITY = 10f;
+
+	private static final int X = 0, Y = 1, WIDTH = 2, HEIGHT = 3;
+
+	private static class Motion {
+		final int id;
+		final StandOutLayoutParams params;
+		final float[] from = new float[4];
+		final float[] to = new float[4];
+		final float[] value = new float[4];
+		final float[] velocity = new float[4];
+
+		// a timed motion
+		long startTime;
+		long duration;
+		Interpolator interpolator;
+
+		// or a spring
+		Spring spring;
+		long lastTime;
+
+		Runnable endAction;
+
+		Motion(int id, StandOutLayoutParams params) {
+			this.id = id;
+			this.params = params;
+		}
+	}
+
+	private final StandOutWindow mContext;
+	private final FrameScheduler mFrameScheduler;
+	private final SparseArray<Motion> mMotions;
+
+	/**
+	 * @param context
+	 *            The service owning the windows.
+	 * @param frameScheduler
+	 *            The frame scheduler of the service.
+	 */
+	public WindowAnimator(StandOutWindow context, FrameScheduler frameScheduler) {
+		mContext = context;
+		mFrameScheduler = frameScheduler;
+		mMotions = new SparseArray<Motion>();
+		frameScheduler.setFrameListener(this);
+	}
+
+	/**
+	 * Animate the window from the geometry in params to the given geometry,
+	 * along the interpolator.
+	 *
+	 * @param id
+	 *            The id of the window.
+	 * @param params
+	 *            The layout params of the window, holding the start geometry.
+	 *            They are updated on every frame.
+	 * @param x
+	 *            The target x position.
+	 * @param y
+	 *            The target y position.
+	 * @param width
+	 *            The target width. Negative values such as
+	 *            {@link StandOutLayoutParams#WRAP_CONTENT} are applied at once.
+	 * @param height
+	 *            The target height, like width.
+	 * @param duration
+	 *            The duration in milliseconds.
+	 * @param interpolator
+	 *            The interpolator, or null for accelerate/decelerate.
+	 * @param endAction
+	 *            Run when the animation reaches its target, or null. Not run
+	 *            if the animation is cancelled or replaced.
+	 */
+	public void animate(int id, StandOutLayoutParams params, int x, int y,
+			int width, int height, long duration, Interpolator interpolator,
+			Runnable endAction) {
+		Motion motion = start(id, params, x, y, width, height, endAction);
+		motion.startTime = SystemClock.uptimeMillis();
+		motion.duration = Math.max(1, duration);
+		motion.interpolator = interpolator != null ? interpolator
+				: new AccelerateDecelerateInterpolator();
+	}
+
+	/**
+	 * Animate the window from the geometry in params to the given geometry,
+	 * following the spring.
+	 *
+	 * @param id
+	 *            The id of the window.
+	 * @param params
+	 *            The layout params of the window, holding the start geometry.
+	 *            They are updated on every frame.
+	 * @param x
+	 *            The target x position.
+	 * @param y
+	 *            The target y position.
+	 * @param width
+	 *            The target width. Negative values such as
+	 *            {@link StandOutLayoutParams#WRAP_CONTENT} are applied at once.
+	 * @param height
+	 *            The target height, like width.
+	 * @param spring
+	 *            The spring.
+	 * @param endAction
+	 *            Run when the window comes to rest at its target, or null. Not
+	 *            run if the animation is cancelled or replaced.
+	 */
+	public void animate(int id, StandOutLayoutParams params, int x, int y,
+			int width, int height, Spring spring, Runnable endAction) {
+		if (spring == null) {
+			throw new IllegalArgumentException("Spring cannot be null.");
+		}
+
+		Motion previous = mMotions.get(id);
+		Motion motion = start(id, params, x, y, width, height, endAction);
+		motion.spring = spring;
+		motion.lastTime = SystemClock.uptimeMillis();
+
+		// a retargeted spring keeps its momentum
+		if (previous != null && previous.spring != null
+				&& previous.params == params) {
+			System.arraycopy(previous.velocity, 0, motion.velocity, 0, 4);
+		}
+	}
+
+	/**
+	 * Stop animating the window corresponding to the id, leaving it where it
+	 * is.
+	 *
+	 * @param id
+	 *            The id of the window.
+	 */
+	public void cancel(int id) {
+		mMotions.remove(id);
+	}
+
+	/**
+	 * Stop animating all windows.
+	 */
+	public void cancelAll() {
+		mMotions.clear();
+	}
+
+	/**
+	 * Returns whether the window corresponding to the id is animating.
+	 *
+	 * @param id
+	 *            The id of the window.
+	 * @return True if the window is animating.
+	 */
+	public boolean isAnimating(int id) {
+		return mMotions.get(id) != null;
+	}
+
+	@Override
+	public boolean onFrame(long frameTimeMillis) {
+		ArrayList<Motion> ended = null;
+
+		for (int i = 0; i < mMotions.size(); i++) {
+			int id = mMotions.keyAt(i);
+			Motion motion = mMotions.valueAt(i);
+
+			// the window may have been closed since
+			boolean done = mContext.getWindow(id) == null;
+			if (!done) {
+				done = motion.spring != null ? stepSpring(motion,
+						frameTimeMillis) : stepTimed(motion, frameTimeMillis);
+
+				StandOutLayoutParams params = motion.params;
+				params.x = Math.round(motion.value[X]);
+				params.y = Math.round(motion.value[Y]);
+				params.width = Math.round(motion.value[WIDTH]);
+				params.height = Math.round(motion.value[HEIGHT]);
+				mFrameScheduler.scheduleLayout(id, params);
+			}
+
+			if (done) {
+				if (ended == null) {
+					ended = new ArrayList<Motion>();
+				}
+				ended.add(motion);
+			}
+		}
+
+		// end actions may start new animations, so run them last
+		if (ended != null) {
+			for (Motion motion : ended) {
+				// an earlier end action may have replaced it
+				if (mMotions.get(motion.id) != motion) {
+					continue;
+				}
+
+				mMotions.remove(motion.id);
+				if (motion.endAction != null
+						&& mContext.getWindow(motion.id) != null) {
+					motion.endAction.run();
+				}
+			}
+		}
+
+		return mMotions.size() > 0;
+	}
+
+	private Motion start(int id, StandOutLayoutParams params, int x, int y,
+			int width, int height, Runnable endAction) {
+		Motion motion = new Motion(id, params);
+		motion.from[X] = params.x;
+		motion.from[Y] = params.y;
+		motion.from[WIDTH] = params.width;
+		motion.from[HEIGHT] = params.height;
+		motion.to[X] = x;
+		motion.to[Y] = y;
+		motion.to[WIDTH] = width;
+		motion.to[HEIGHT] = height;
+
+		// special sizes cannot be interpolated
+		for (int axis = WIDTH; axis <= HEIGHT; axis++) {
+			if (motion.from[axis] < 0 || motion.to[axis] < 0) {
+				motion.from[axis] = motion.to[axis];
+			}
+		}
+
+		System.arraycopy(motion.from, 0, motion.value, 0, 4);
+		motion.endAction = endAction;
+
+		mMotions.put(id, motion);
+		mFrameScheduler.requestFrame();
+		return motion;
+	}
+
+	private boolean stepTimed(Motion motion, long now) {
+		float fraction = Math.min(1f, (float) (now - motion.startTime)
+				/ motion.duration);
+		float interpolated = motion.interpolator.getInterpolation(fraction);
+		for (int axis = 0; axis < 4; axis++) {
+			motion.value[axis] = motion.from[axis]
+					+ (motion.to[axis] - motion.from[axis]) * interpolated;
+		}
+		return fraction >= 1f;
+	}
+
+	private boolean stepSpring(Motion motion, long now) {
+		float elapsed = Math.max(0, now - motion.lastTime) / 1000f;
+		motion.lastTime = now;
+
+		Spring spring = motion.spring;
+		while (elapsed > 0) {
+			float step = Math.min(elapsed, MAX_SPRING_STEP_SECONDS);
+			elapsed -= step;
+
+			for (int axis = 0; axis < 4; axis++) {
+				float displacement = motion.value[axis] - motion.to[axis];
+				float acceleration = -spring.stiffness * displacement
+						- spring.damping * motion.velocity[axis];
+				motion.velocity[axis] += acceleration * step;
+				motion.value[axis] += motion.velocity[axis] * step;
+			}
+		}
+
+		for (int axis = 0; axis < 4; axis++) {
+			if (Math.abs(motion.value[axis] - motion.to[axis]) > REST_DISTANCE
+					|| Math.abs(motion.velocity[axis]) > REST_VELOCITY) {
+				return false;
+			}
+		}
+
+		// snap to the target once at rest
+		System.arraycopy(motion.to, 0, motion.value, 0, 4);
+		return true;
+	}
+}
@@ -0,0 +1,247 @@
+package wei.mark.standout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.RemoteException;
+
+/**
+ * Operations on many windows of a {@link StandOutWindow} that are sent to the
+ * service in one binder transaction. The service runs them in order in one
+ * pass on its main thread and returns a result for each.
+ *
+ * <p>
+ * Bind to a service that returns true from
+ * {@link StandOutWindow#isRemoteControlEnabled()}, then build and execute a
+ * batch with the binder received in
+ * {@link android.content.ServiceConnection#onServiceConnected}:
+ *
+ * <pre>
+ * int[] results = new WindowBatch().show(1).move(1, 100, 200).close(2)
+ * 		.execute(binder);
+ * </pre>
+ *
+ * <p>
+ * The service must be exported for other processes to bind to it. Callers
+ * from other applications must also hold the permission returned by
+ * {@link StandOutWindow#getRemoteControlPermission()}; without it,
+ * {@link #execute(IBinder)} throws a {@link SecurityException}. Operations on
+ * {@link StandOutWindow#ONGOING_NOTIFICATION_ID} or
+ * {@link StandOutWindow#HIDDEN_SUMMARY_NOTIFICATION_ID} fail with
+ * {@link #RESULT_FAILED}.
+ */
+public class WindowBatch {
+	/**
+	 * Result: The operation was done.
+	 */
+	public static final int RESULT_OK = 0;
+
+	/**
+	 * Result: The implementation cancelled the operation in one of its
+	 * callbacks.
+	 */
+	public static final int RESULT_CANCELLED = 1;
+
+	/**
+	 * Result: There is no window with the id.
+	 */
+	public static final int RESULT_NO_WINDOW = 2;
+
+	/**
+	 * Result: The operation threw an exception.
+	 */
+	public static final int RESULT_FAILED = 3;
+
+	static final String DESCRIPTOR = "wei.mark.standout.StandOutWindow";
+	static final int TRANSACTION_BATCH = IBinder.FIRST_CALL_TRANSACTION;
+
+	static final int OP_SHOW = 1;
+	static final int OP_HIDE = 2;
+	static final int OP_CLOSE = 3;
+	static final int OP_MOVE = 4;
+	static final int OP_RESIZE = 5;
+	static final int OP_SEND_DATA = 6;
+
+	static class Operation {
+		final int code;
+		final int id;
+		final int arg1, arg2;
+		final Bundle data;
+
+		Operation(int code, int id, int arg1, int arg2, Bundle data) {
+			this.code = code;
+			this.id = id;
+			this.arg1 = arg1;
+			this.arg2 = arg2;
+			this.data = data;
+		}
+	}
+
+	final List<Operation> operations;
+
+	public WindowBatch() {
+		operations = new ArrayList<Operation>();
+	}
+
+	/**
+	 * Show or restore the window corresponding to the id.
+	 *
+	 * @param id
+	 *            The id of the window.
+	 * @return This batch.
+	 * @see StandOutWindow#show(int)
+	 */
+	public WindowBatch show(int id) {
+		operations.add(new Operation(OP_SHOW, id, 0, 0, null));
+		return this;
+	}
+
+	/**
+	 * Hide the window corresponding to the id.
+	 *
+	 * @param id
+	 *            The id of the window.
+	 * @return This batch.
+	 * @see StandOutWindow#hide(int)
+	 */
+	public WindowBatch hide(int id) {
+		operations.add(new Operation(OP_HIDE, id, 0, 0, null));
+		return this;
+	}
+
+	/**
+	 * Close the window corresponding to the id.
+	 *
+	 * @param id
+	 *            The id of the window.
+	 * @return This batch.
+	 * @see StandOutWindow#close(int)
+	 */
+	public WindowBatch close(int id) {
+		operations.add(new Operation(OP_CLOSE, id, 0, 0, null));
+		return this;
+	}
+
+	/**
+	 * Move the window corresponding to the id.
+	 *
+	 * @param id
+	 *            The id of the window.
+	 * @param x
+	 *            The new x position, in pixels.
+	 * @param y
+	 *            The new y position, in pixels.
+	 * @return This batch.
+	 * @see wei.mark.standout.ui.Window.Editor#setPosition(int, int)
+	 */
+	public WindowBatch move(int id, int x, int y) {
+		operations.add(new Operation(OP_MOVE, id, x, y, null));
+		return this;
+	}
+
+	/**
+	 * Resize the window corresponding to the id.
+	 *
+	 * @param id
+	 *            The id of the window.
+	 * @param width
+	 *            The new width, in pixels.
+	 * @param height
+	 *            The new height, in pixels.
+	 * @return This batch.
+	 * @see wei.mark.standout.ui.Window.Editor#setSize(int, int)
+	 */
+	public WindowBatch resize(int id, int width, int height) {
+		operations.add(new Operation(OP_RESIZE, id, width, height, null));
+		return this;
+	}
+
+	/**
+	 * Send data to the window corresponding to the id. The data goes through
+	 * the mailbox of the window and its overflow policy, like data sent in the
+	 * service's process, and is delivered after the batch has run. The window
+	 * receives it in
+	 * {@link StandOutWindow#onReceiveData(int, int, Bundle, Class, int)}
+	 * without a sender.
+	 *
+	 * @param id
+	 *            The id of the receiving window, or
+	 *            {@link StandOutWindow#DISREGARD_ID}.
+	 * @param requestCode
+	 *            Provide a request code to declare what kind of data is being
+	 *            sent.
+	 * @param data
+	 *            A bundle of parceleable data to be sent to the receiving
+	 *            window.
+	 * @return This batch.
+	 */
+	public WindowBatch sendData(int id, int requestCode, Bundle data) {
+		operations.add(new Operation(OP_SEND_DATA, id, requestCode, 0, data));
+		return this;
+	}
+
+	/**
+	 * Returns the number of operations in this batch.
+	 *
+	 * @return The number of operations.
+	 */
+	public int size() {
+		return operations.size();
+	}
+
+	/**
+	 * Send the batch to the service and wait for the results.
+	 *
+	 * @param binder
+	 *            The binder received when binding to the service.
+	 * @return The result of each operation, in the order they were added.
+	 *         One of {@link #RESULT_OK}, {@link #RESULT_CANCELLED},
+	 *         {@link #RESULT_NO_WINDOW} or {@link #RESULT_FAILED}.
+	 * @throws RemoteException
+	 *             If the service died.
+	 */
+	public int[] execute(IBinder binder) throws RemoteException {
+		Parcel data = Parcel.obtain();
+		Parcel reply = Parcel.obtain();
+		try {
+			data.writeInterfaceToken(DESCRIPTOR);
+			writeToParcel(data);
+			binder.transact(TRANSACTION_BATCH, data, reply, 0);
+			reply.readException();
+			return reply.createIntArray();
+		} finally {
+			reply.recycle();
+			data.recycle();
+		}
+	}
+
+	void writeToParcel(Parcel out) {
+		out.writeInt(operations.size());
+		for (Operation operation : operations) {
+			out.writeInt(operation.code);
+			out.writeInt(operation.id);
+			out.writeInt(operation.arg1);
+			out.writeInt(operation.arg2);
+			if (operation.code == OP_SEND_DATA) {
+				out.writeBundle(operation.data);
+			}
+		}
+	}
+
+	static WindowBatch readFromParcel(Parcel in, ClassLoader loader) {
+		WindowBatch batch = new WindowBatch();
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			int code = in.readInt();
+			int id = in.readInt();
+			int arg1 = in.readInt();
+			int arg2 = in.readInt();
+			Bundle data = code == OP_SEND_DATA ? in.readBundle(loader) : null;
+			batch.operations.add(new Operation(code, id, arg1, arg2, data));
+		}
+		return batch;
+	}
+}
@@ -7,19 +7,299 @@ import java.util.Set;
 
 import wei.mark.standout.ui.Window;
 
-import android.util.SparseArray;
-
+/**
+ * Cache of the shown and hidden windows of every {@link StandOutWindow} class.
+ *
+ * <p>
+ * Each class is registered once and gets a dense integer slot. The windows of
+ * a slot are kept in flat arrays sorted by id. Callers that know their slot,
+ * such as a running {@link StandOutWindow}, use the slot based methods and
+ * skip the lookup of the class. Callers that keep a {@link WindowHandle} skip
+ * the lookup of the id as well.
+ *
+ * <p>
+ * The cache is copy-on-write. Every change publishes a new immutable
+ * {@link Snapshot}, so reads never lock and are safe from any thread. Changes
+ * are serialized by the cache's monitor. Note that the windows themselves are
+ * views and must only be touched on the main thread.
+ */
 public class WindowCache {
-	public Map<Class<? extends StandOutWindow>, SparseArray<Window>> sWindows;
+	/**
+	 * Callback for iterating over cached windows without boxing their ids.
+	 */
+	public interface WindowConsumer {
+		/**
+		 * @param id
+		 *            The id of the window.
+		 * @param window
+		 *            The cached window.
+		 */
+		void accept(int id, Window window);
+	}
+
+	/**
+	 * Immutable windows of one slot, sorted by id.
+	 */
+	static final class Entries {
+		static final Entries EMPTY = new Entries(new int[0],
+				new WindowHandle[0]);
+
+		final int[] ids;
+		final WindowHandle[] handles;
+
+		Entries(int[] ids, WindowHandle[] handles) {
+			this.ids = ids;
+			this.handles = handles;
+		}
+
+		/**
+		 * Binary search for the id.
+		 *
+		 * @return The index of the id, or (-(insertion point) - 1) if the id
+		 *         is not cached.
+		 */
+		int indexOf(int id) {
+			int low = 0;
+			int high = ids.length - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int midId = ids[mid];
+				if (midId < id) {
+					low = mid + 1;
+				} else if (midId > id) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
+
+		Entries insert(int index, int id, WindowHandle handle) {
+			int size = ids.length;
+			int[] newIds = new int[size + 1];
+			WindowHandle[] newHandles = new WindowHandle[size + 1];
+			System.arraycopy(ids, 0, newIds, 0, index);
+			System.arraycopy(handles, 0, newHandles, 0, index);
+			newIds[index] = id;
+			newHandles[index] = handle;
+			System.arraycopy(ids, index, newIds, index + 1, size - index);
+			System.arraycopy(handles, index, newHandles, index + 1, size
+					- index);
+			return new Entries(newIds, newHandles);
+		}
+
+		Entries replace(int index, WindowHandle handle) {
+			WindowHandle[] newHandles = handles.clone();
+			newHandles[index] = handle;
+			return new Entries(ids, newHandles);
+		}
+
+		Entries remove(int index) {
+			int size = ids.length;
+			int[] newIds = new int[size - 1];
+			WindowHandle[] newHandles = new WindowHandle[size - 1];
+			System.arraycopy(ids, 0, newIds, 0, index);
+			System.arraycopy(handles, 0, newHandles, 0, index);
+			System.arraycopy(ids, index + 1, newIds, index, size - index - 1);
+			System.arraycopy(handles, index + 1, newHandles, index, size
+					- index - 1);
+			return new Entries(newIds, newHandles);
+		}
+	}
+
+	/**
+	 * Immutable view of the cache at one point in time. Safe to keep and read
+	 * from any thread; it does not change when windows are shown or closed.
+	 */
+	public static final class Snapshot {
+		final Map<Class<? extends StandOutWindow>, Integer> slotIndices;
+		final Entries[] slots;
+		final long version;
+
+		Snapshot(Map<Class<? extends StandOutWindow>, Integer> slotIndices,
+				Entries[] slots, long version) {
+			this.slotIndices = slotIndices;
+			this.slots = slots;
+			this.version = version;
+		}
+
+		/**
+		 * Returns the version of the cache this snapshot was taken at. The
+		 * version increases with every change.
+		 *
+		 * @return The version.
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * Returns the slot of the class.
+		 *
+		 * @param cls
+		 *            The class of the implementation of the window.
+		 * @return The slot, or -1 if the class was never registered.
+		 */
+		public int getSlot(Class<? extends StandOutWindow> cls) {
+			Integer slot = slotIndices.get(cls);
+			return slot == null ? -1 : slot;
+		}
+
+		/**
+		 * Returns whether the window corresponding to the class and id was
+		 * cached.
+		 *
+		 * @param id
+		 *            The id representing the window.
+		 * @param cls
+		 *            The class of the implementation of the window.
+		 * @return True if the window was shown or hidden.
+		 */
+		public boolean isCached(int id, Class<? extends StandOutWindow> cls) {
+			return getHandle(id, cls) != null;
+		}
+
+		/**
+		 * Returns the handle of the window corresponding to the class and id.
+		 *
+		 * @param id
+		 *            The id representing the window.
+		 * @param cls
+		 *            The class of the implementation of the window.
+		 * @return The handle, or null if the window was not cached.
+		 */
+		public WindowHandle getHandle(int id, Class<? extends StandOutWindow> cls) {
+			int slot = getSlot(cls);
+			if (slot == -1) {
+				return null;
+			}
+
+			Entries entries = slots[slot];
+			int index = entries.indexOf(id);
+			return index < 0 ? null : entries.handles[index];
+		}
+
+		/**
+		 * Returns the number of cached windows of the class.
+		 *
+		 * @param cls
+		 *            The class of the implementation of the window.
+		 * @return The number of windows.
+		 */
+		public int getCacheSize(Class<? extends StandOutWindow> cls) {
+			int slot = getSlot(cls);
+			return slot == -1 ? 0 : slots[slot].ids.length;
+		}
+
+		/**
+		 * Returns the ids of the cached windows of the class, in ascending
+		 * order.
+		 *
+		 * @param cls
+		 *            The class of the implementation of the window.
+		 * @return The ids.
+		 */
+		public int[] getCacheIdArray(Class<? extends StandOutWindow> cls) {
+			int slot = getSlot(cls);
+			return slot == -1 ? new int[0] : slots[slot].ids.clone();
+		}
+
+		/**
+		 * Returns the number of classes that have cached windows.
+		 *
+		 * @return The number of classes with at least one window.
+		 */
+		public int size() {
+			int size = 0;
+			for (Entries entries : slots) {
+				if (entries.ids.length > 0) {
+					size++;
+				}
+			}
+			return size;
+		}
+	}
+
+	private volatile Snapshot sSnapshot;
+
+	// only touched while holding the monitor
+	private IdAllocator[] sIdAllocators;
 
 	public WindowCache() {
-		sWindows = new HashMap<Class<? extends StandOutWindow>, SparseArray<Window>>();
+		sSnapshot = new Snapshot(
+				new HashMap<Class<? extends StandOutWindow>, Integer>(),
+				new Entries[0], 0);
+		sIdAllocators = new IdAllocator[0];
+	}
+
+	/**
+	 * Returns an immutable view of the cache. Use this to make several
+	 * consistent reads, or to read from a background thread.
+	 *
+	 * @return The current snapshot.
+	 */
+	public Snapshot getSnapshot() {
+		return sSnapshot;
+	}
+
+	/**
+	 * Register the class and return its slot. Registering a class more than
+	 * once returns the same slot.
+	 *
+	 * @param cls
+	 *            The class of the implementation of the window.
+	 * @return The slot of the class.
+	 */
+	public int register(Class<? extends StandOutWindow> cls) {
+		int slot = sSnapshot.getSlot(cls);
+		if (slot != -1) {
+			return slot;
+		}
+
+		synchronized (this) {
+			Snapshot snapshot = sSnapshot;
+			slot = snapshot.getSlot(cls);
+			if (slot != -1) {
+				return slot;
+			}
+
+			slot = snapshot.slots.length;
+
+			Map<Class<? extends StandOutWindow>, Integer> slotIndices = new HashMap<Class<? extends StandOutWindow>, Integer>(
+					snapshot.slotIndices);
+			slotIndices.put(cls, slot);
+
+			Entries[] slots = new Entries[slot + 1];
+			System.arraycopy(snapshot.slots, 0, slots, 0, slot);
+			slots[slot] = Entries.EMPTY;
+
+			IdAllocator[] allocators = new IdAllocator[slot + 1];
+			System.arraycopy(sIdAllocators, 0, allocators, 0, slot);
+			allocators[slot] = new IdAllocator();
+			sIdAllocators = allocators;
+
+			sSnapshot = new Snapshot(slotIndices, slots,
+					snapshot.version + 1);
+			return slot;
+		}
+	}
+
+	/**
+	 * Returns the slot of the class.
+	 *
+	 * @param cls
+	 *            The class of the implementation of the window.
+	 * @return The slot, or -1 if the class was never registered.
+	 */
+	public int getSlot(Class<? extends StandOutWindow> cls) {
+		return sSnapshot.getSlot(cls);
 	}
 
 	/**
 	 * Returns whether the window corresponding to the class and id exists in
-	 * the {@link #sWindows} cache.
-	 * 
+	 * the cache.
+	 *
 	 * @param id
 	 *            The id representing the window.
 	 * @param cls
@@ -28,13 +308,26 @@ public class WindowCache {
 	 *         the cache, or false if it does not exist.
 	 */
 	public boolean isCached(int id, Class<? extends StandOutWindow> cls) {
-		return getCache(id, cls) != null;
+		return sSnapshot.isCached(id, cls);
 	}
 
 	/**
-	 * Returns the window corresponding to the id from the {@link #sWindows}
-	 * cache.
-	 * 
+	 * Returns whether the window corresponding to the slot and id exists in
+	 * the cache.
+	 *
+	 * @param slot
+	 *            The slot of the class of the window.
+	 * @param id
+	 *            The id representing the window.
+	 * @return True if the window exists in the cache.
+	 */
+	public boolean isCached(int slot, int id) {
+		return getHandle(slot, id) != null;
+	}
+
+	/**
+	 * Returns the window corresponding to the id from the cache.
+	 *
 	 * @param id
 	 *            The id representing the window.
 	 * @param cls
@@ -43,17 +336,43 @@ public class WindowCache {
 	 *         null if it does not.
 	 */
 	public Window getCache(int id, Class<? extends StandOutWindow> cls) {
-		SparseArray<Window> l2 = sWindows.get(cls);
-		if (l2 == null) {
-			return null;
-		}
+		WindowHandle handle = sSnapshot.getHandle(id, cls);
+		return handle == null ? null : handle.window;
+	}
 
-		return l2.get(id);
+	/**
+	 * Returns the window corresponding to the slot and id from the cache.
+	 *
+	 * @param slot
+	 *            The slot of the class of the window.
+	 * @param id
+	 *            The id representing the window.
+	 * @return The window if it exists in the cache, or null if it does not.
+	 */
+	public Window getCache(int slot, int id) {
+		WindowHandle handle = getHandle(slot, id);
+		return handle == null ? null : handle.window;
 	}
 
 	/**
-	 * Add the window corresponding to the id in the {@link #sWindows} cache.
-	 * 
+	 * Returns the handle of the window corresponding to the slot and id.
+	 *
+	 * @param slot
+	 *            The slot of the class of the window.
+	 * @param id
+	 *            The id representing the window.
+	 * @return The handle if the window exists in the cache, or null if it does
+	 *         not.
+	 */
+	public WindowHandle getHandle(int slot, int id) {
+		Entries entries = sSnapshot.slots[slot];
+		int index = entries.indexOf(id);
+		return index < 0 ? null : entries.handles[index];
+	}
+
+	/**
+	 * Add the window corresponding to the id in the cache.
+	 *
 	 * @param id
 	 *            The id representing the window.
 	 * @param cls
@@ -61,73 +380,277 @@ public class WindowCache {
 	 * @param window
 	 *            The window to be put in the cache.
 	 */
-	public void putCache(int id, Class<? extends StandOutWindow> cls, Window window) {
-		SparseArray<Window> l2 = sWindows.get(cls);
-		if (l2 == null) {
-			l2 = new SparseArray<Window>();
-			sWindows.put(cls, l2);
+	public void putCache(int id, Class<? extends StandOutWindow> cls,
+			Window window) {
+		putCache(register(cls), id, window);
+	}
+
+	/**
+	 * Add the window corresponding to the slot and id in the cache. A window
+	 * previously cached with the same id is replaced, and its handle becomes
+	 * invalid.
+	 *
+	 * @param slot
+	 *            The slot of the class of the window.
+	 * @param id
+	 *            The id representing the window.
+	 * @param window
+	 *            The window to be put in the cache.
+	 * @return The handle of the cached window.
+	 */
+	public synchronized WindowHandle putCache(int slot, int id, Window window) {
+		Snapshot snapshot = sSnapshot;
+		Entries entries = snapshot.slots[slot];
+		int index = entries.indexOf(id);
+
+		WindowHandle handle;
+		if (index >= 0) {
+			handle = entries.handles[index];
+			if (handle.window == window) {
+				return handle;
+			}
+			handle.window = null;
+			handle = new WindowHandle(slot, id, window);
+			entries = entries.replace(index, handle);
+		} else {
+			handle = new WindowHandle(slot, id, window);
+			entries = entries.insert(-(index + 1), id, handle);
 		}
 
-		l2.put(id, window);
+		sIdAllocators[slot].use(id);
+		publish(snapshot, slot, entries);
+		return handle;
 	}
 
 	/**
-	 * Remove the window corresponding to the id from the {@link #sWindows}
-	 * cache.
-	 * 
+	 * Remove the window corresponding to the id from the cache.
+	 *
 	 * @param id
 	 *            The id representing the window.
 	 * @param cls
 	 *            The class of the implementation of the window.
 	 */
 	public void removeCache(int id, Class<? extends StandOutWindow> cls) {
-		SparseArray<Window> l2 = sWindows.get(cls);
-		if (l2 != null) {
-			l2.remove(id);
-			if (l2.size() == 0) {
-				sWindows.remove(cls);
-			}
+		int slot = getSlot(cls);
+		if (slot != -1) {
+			removeCache(slot, id);
 		}
 	}
 
 	/**
-	 * Returns the size of the {@link #sWindows} cache.
-	 * 
+	 * Remove the window corresponding to the slot and id from the cache. The
+	 * handle of the window becomes invalid.
+	 *
+	 * @param slot
+	 *            The slot of the class of the window.
+	 * @param id
+	 *            The id representing the window.
+	 */
+	public synchronized void removeCache(int slot, int id) {
+		Snapshot snapshot = sSnapshot;
+		Entries entries = snapshot.slots[slot];
+		int index = entries.indexOf(id);
+		if (index < 0) {
+			return;
+		}
+
+		entries.handles[index].window = null;
+
+		sIdAllocators[slot].release(id);
+		publish(snapshot, slot, entries.remove(index));
+	}
+
+	/**
+	 * Returns the size of the cache.
+	 *
 	 * @return True if the cache corresponding to this class is empty, false if
 	 *         it is not empty.
 	 * @param cls
 	 *            The class of the implementation of the window.
 	 */
 	public int getCacheSize(Class<? extends StandOutWindow> cls) {
-		SparseArray<Window> l2 = sWindows.get(cls);
-		if (l2 == null) {
-			return 0;
-		}
+		return sSnapshot.getCacheSize(cls);
+	}
 
-		return l2.size();
+	/**
+	 * Returns the number of cached windows of the slot.
+	 *
+	 * @param slot
+	 *            The slot of the class of the window.
+	 * @return The number of cached windows.
+	 */
+	public int getCacheSize(int slot) {
+		return sSnapshot.slots[slot].ids.length;
 	}
 
 	/**
-	 * Returns the ids in the {@link #sWindows} cache.
-	 * 
+	 * Returns the ids in the cache. Prefer {@link #getCacheIdArray(Class)} or
+	 * {@link #forEachWindow(Class, WindowConsumer)}, which do not box every id.
+	 *
 	 * @param cls
 	 *            The class of the implementation of the window.
 	 * @return The ids representing the cached windows.
 	 */
 	public Set<Integer> getCacheIds(Class<? extends StandOutWindow> cls) {
-		SparseArray<Window> l2 = sWindows.get(cls);
-		if (l2 == null) {
-			return new HashSet<Integer>();
-		}
-
 		Set<Integer> keys = new HashSet<Integer>();
-		for (int i = 0; i < l2.size(); i++) {
-			keys.add(l2.keyAt(i));
+		for (int id : getCacheIdArray(cls)) {
+			keys.add(id);
 		}
 		return keys;
 	}
-	
+
+	/**
+	 * Returns a snapshot of the ids in the cache, in ascending order. The
+	 * snapshot is not affected by later changes to the cache, so it is safe to
+	 * close windows while iterating over it.
+	 *
+	 * @param cls
+	 *            The class of the implementation of the window.
+	 * @return The ids representing the cached windows.
+	 */
+	public int[] getCacheIdArray(Class<? extends StandOutWindow> cls) {
+		return sSnapshot.getCacheIdArray(cls);
+	}
+
+	/**
+	 * Returns a snapshot of the ids of the slot, in ascending order.
+	 *
+	 * @param slot
+	 *            The slot of the class of the window.
+	 * @return The ids representing the cached windows.
+	 */
+	public int[] getCacheIdArray(int slot) {
+		return sSnapshot.slots[slot].ids.clone();
+	}
+
+	/**
+	 * Copy the ids in the cache, in ascending order, into the given array.
+	 * Allows callers to reuse one array.
+	 *
+	 * @param cls
+	 *            The class of the implementation of the window.
+	 * @param ids
+	 *            The array to copy the ids into. If it is too small, only the
+	 *            first ids are copied.
+	 * @return The number of cached windows, which may be larger than the
+	 *         array.
+	 */
+	public int copyCacheIds(Class<? extends StandOutWindow> cls, int[] ids) {
+		Snapshot snapshot = sSnapshot;
+		int slot = snapshot.getSlot(cls);
+		if (slot == -1) {
+			return 0;
+		}
+
+		int[] cached = snapshot.slots[slot].ids;
+		System.arraycopy(cached, 0, ids, 0, Math.min(cached.length, ids.length));
+		return cached.length;
+	}
+
+	/**
+	 * Call the consumer for every cached window of the class, in ascending
+	 * order of ids. The consumer sees the windows cached when the iteration
+	 * started, even if it shows or closes windows.
+	 *
+	 * @param cls
+	 *            The class of the implementation of the window.
+	 * @param consumer
+	 *            The callback.
+	 */
+	public void forEachWindow(Class<? extends StandOutWindow> cls,
+			WindowConsumer consumer) {
+		Snapshot snapshot = sSnapshot;
+		int slot = snapshot.getSlot(cls);
+		if (slot != -1) {
+			forEachWindow(snapshot.slots[slot], consumer);
+		}
+	}
+
+	/**
+	 * Call the consumer for every cached window of the slot, in ascending
+	 * order of ids. The consumer sees the windows cached when the iteration
+	 * started.
+	 *
+	 * @param slot
+	 *            The slot of the class of the window.
+	 * @param consumer
+	 *            The callback.
+	 */
+	public void forEachWindow(int slot, WindowConsumer consumer) {
+		forEachWindow(sSnapshot.slots[slot], consumer);
+	}
+
+	/**
+	 * Call the consumer for every cached window of every class. The consumer
+	 * sees the windows cached when the iteration started.
+	 *
+	 * @param consumer
+	 *            The callback.
+	 */
+	public void forEachWindow(WindowConsumer consumer) {
+		for (Entries entries : sSnapshot.slots) {
+			forEachWindow(entries, consumer);
+		}
+	}
+
+	private void forEachWindow(Entries entries, WindowConsumer consumer) {
+		for (int i = 0; i < entries.ids.length; i++) {
+			Window window = entries.handles[i].window;
+			if (window != null) {
+				consumer.accept(entries.ids[i], window);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of classes that have cached windows.
+	 *
+	 * @return The number of classes with at least one window.
+	 */
 	public int size() {
-		return sWindows.size();
+		return sSnapshot.size();
+	}
+
+	/**
+	 * Returns an id that is not used by any cached window of the class. Ids of
+	 * closed windows are reused. The id is not marked as in use until a window
+	 * with that id is put in the cache.
+	 *
+	 * @param cls
+	 *            The class of the implementation of the window.
+	 * @return A free id.
+	 */
+	public int getUniqueId(Class<? extends StandOutWindow> cls) {
+		int slot = register(cls);
+		synchronized (this) {
+			return sIdAllocators[slot].peek();
+		}
+	}
+
+	/**
+	 * Keep the id from being returned by {@link #getUniqueId(Class)}. Windows
+	 * with a reserved id can still be cached.
+	 *
+	 * @param id
+	 *            The id to reserve.
+	 * @param cls
+	 *            The class of the implementation of the window.
+	 */
+	public void reserveId(int id, Class<? extends StandOutWindow> cls) {
+		int slot = register(cls);
+		synchronized (this) {
+			sIdAllocators[slot].reserve(id);
+		}
+	}
+
+	/**
+	 * Publish a new snapshot with the entries of one slot replaced. Must be
+	 * called while holding the monitor.
+	 */
+	private void publish(Snapshot snapshot, int slot, Entries entries) {
+		Entries[] slots = snapshot.slots.clone();
+		slots[slot] = entries;
+		sSnapshot = new Snapshot(snapshot.slotIndices, slots,
+				snapshot.version + 1);
 	}
 }
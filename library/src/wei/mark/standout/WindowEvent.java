@@ -0,0 +1,155 @@
+package wei.mark.standout;
+
+/**
+ * A lifecycle or geometry change of a window, as published on the
+ * {@link WindowEventStream}. Events are immutable.
+ */
+public final class WindowEvent {
+	/**
+	 * Event type: The window was shown or restored.
+	 */
+	public static final int TYPE_SHOW = 1;
+
+	/**
+	 * Event type: The window started hiding.
+	 */
+	public static final int TYPE_HIDE = 2;
+
+	/**
+	 * Event type: The window started closing.
+	 */
+	public static final int TYPE_CLOSE = 3;
+
+	/**
+	 * Event type: The window gained focus.
+	 */
+	public static final int TYPE_FOCUS = 4;
+
+	/**
+	 * Event type: The window lost focus.
+	 */
+	public static final int TYPE_UNFOCUS = 5;
+
+	/**
+	 * Event type: The window was brought in front of all other windows.
+	 */
+	public static final int TYPE_BRING_TO_FRONT = 6;
+
+	/**
+	 * Event type: The window moved. Conflated for slow subscribers.
+	 */
+	public static final int TYPE_MOVE = 7;
+
+	/**
+	 * Event type: The window was resized. Conflated for slow subscribers.
+	 */
+	public static final int TYPE_RESIZE = 8;
+
+	private final int mType;
+	private final Class<? extends StandOutWindow> mWindowClass;
+	private final int mId;
+	private final int mX, mY, mWidth, mHeight;
+	private final long mTime;
+
+	WindowEvent(int type, Class<? extends StandOutWindow> windowClass, int id,
+			int x, int y, int width, int height, long time) {
+		mType = type;
+		mWindowClass = windowClass;
+		mId = id;
+		mX = x;
+		mY = y;
+		mWidth = width;
+		mHeight = height;
+		mTime = time;
+	}
+
+	/**
+	 * Returns the type of this event.
+	 *
+	 * @return One of the TYPE_ constants.
+	 */
+	public int getType() {
+		return mType;
+	}
+
+	/**
+	 * Returns the class of the service managing the window.
+	 *
+	 * @return The class.
+	 */
+	public Class<? extends StandOutWindow> getWindowClass() {
+		return mWindowClass;
+	}
+
+	/**
+	 * Returns the id of the window.
+	 *
+	 * @return The id.
+	 */
+	public int getId() {
+		return mId;
+	}
+
+	/**
+	 * Returns the x position of the window when the event happened.
+	 *
+	 * @return The x position, in pixels.
+	 */
+	public int getX() {
+		return mX;
+	}
+
+	/**
+	 * Returns the y position of the window when the event happened.
+	 *
+	 * @return The y position, in pixels.
+	 */
+	public int getY() {
+		return mY;
+	}
+
+	/**
+	 * Returns the width of the window when the event happened.
+	 *
+	 * @return The width, in pixels.
+	 */
+	public int getWidth() {
+		return mWidth;
+	}
+
+	/**
+	 * Returns the height of the window when the event happened.
+	 *
+	 * @return The height, in pixels.
+	 */
+	public int getHeight() {
+		return mHeight;
+	}
+
+	/**
+	 * Returns when the event happened.
+	 *
+	 * @return The time, in {@link android.os.SystemClock#uptimeMillis()}.
+	 */
+	public long getTime() {
+		return mTime;
+	}
+
+	/**
+	 * Returns whether a newer event of the same type for the same window
+	 * replaces this one if it was not delivered yet.
+	 *
+	 * @return True for move and resize events.
+	 */
+	public boolean isConflatable() {
+		return mType == TYPE_MOVE || mType == TYPE_RESIZE;
+	}
+
+	@Override
+	public String toString() {
+		return "WindowEvent { type=" + mType + ", class="
+				+ mWindowClass.getSimpleName() + ", id=" + mId + ", x=" + mX
+				+ ", y=" + mY + ", width=" + mWidth + ", height=" + mHeight
+				+ ", time=" + mTime + " }";
+	}
+}
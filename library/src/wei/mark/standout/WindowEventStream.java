@@ -0,0 +1,384 @@
+package wei.mark.standout;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import wei.mark.standout.ui.Window;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Publishes {@link WindowEvent}s of every window in the process to
+ * subscribers, without subclassing {@link StandOutWindow}.
+ *
+ * <p>
+ * Events are delivered on a background thread, never on the thread that
+ * changed the window, so a slow subscriber does not slow down touch handling.
+ * Each subscriber receives events in order, and only as many as it requested
+ * with {@link Subscription#request(long)}. Events the subscriber has not
+ * requested yet wait in its buffer. While they wait, a newer move or resize of
+ * the same window replaces an older one. If the buffer is full, the oldest
+ * event is dropped.
+ *
+ * <p>
+ * Publishing costs nothing while there are no subscribers.
+ */
+public final class WindowEventStream {
+	/**
+	 * Receives window events.
+	 */
+	public interface Subscriber {
+		/**
+		 * Called once, on the subscribing thread, before any event. Request
+		 * events with {@link Subscription#request(long)}.
+		 *
+		 * @param subscription
+		 *            The subscription.
+		 */
+		void onSubscribe(Subscription subscription);
+
+		/**
+		 * Called on a background thread for each requested event.
+		 *
+		 * @param event
+		 *            The event.
+		 */
+		void onEvent(WindowEvent event);
+	}
+
+	/**
+	 * The link between the stream and one subscriber.
+	 */
+	public static final class Subscription {
+		private static class Key {
+			final int type;
+			final Class<?> cls;
+			final int id;
+
+			Key(WindowEvent event) {
+				type = event.getType();
+				cls = event.getWindowClass();
+				id = event.getId();
+			}
+
+			@Override
+			public boolean equals(Object o) {
+				if (!(o instanceof Key)) {
+					return false;
+				}
+				Key other = (Key) o;
+				return type == other.type && cls == other.cls
+						&& id == other.id;
+			}
+
+			@Override
+			public int hashCode() {
+				return (cls.hashCode() * 31 + id) * 31 + type;
+			}
+		}
+
+		private static class Slot {
+			WindowEvent event;
+			final Key key;
+
+			Slot(WindowEvent event, Key key) {
+				this.event = event;
+				this.key = key;
+			}
+		}
+
+		private final Subscriber mSubscriber;
+		private final int mCapacity;
+		private final LinkedList<Slot> mBuffer;
+
+		// waiting move and resize events, by type and window
+		private final Map<Key, Slot> mConflatable;
+
+		private long mDemand;
+		private boolean mDraining;
+		private volatile boolean mCancelled;
+
+		private long mConflatedCount;
+		private long mDroppedCount;
+
+		private final Runnable mDrain = new Runnable() {
+
+			@Override
+			public void run() {
+				drain();
+			}
+		};
+
+		Subscription(Subscriber subscriber, int capacity) {
+			mSubscriber = subscriber;
+			mCapacity = capacity;
+			mBuffer = new LinkedList<Slot>();
+			mConflatable = new HashMap<Key, Slot>();
+		}
+
+		/**
+		 * Ask for more events.
+		 *
+		 * @param n
+		 *            The number of events the subscriber can take now, or
+		 *            {@link Long#MAX_VALUE} for all events.
+		 */
+		public void request(long n) {
+			if (n <= 0) {
+				throw new IllegalArgumentException(
+						"Must request a positive number of events.");
+			}
+
+			synchronized (this) {
+				mDemand = mDemand + n < mDemand ? Long.MAX_VALUE : mDemand
+						+ n;
+			}
+			schedule();
+		}
+
+		/**
+		 * Stop receiving events. Events that are being delivered may still
+		 * arrive.
+		 */
+		public void cancel() {
+			mCancelled = true;
+			remove(this);
+			synchronized (this) {
+				mBuffer.clear();
+				mConflatable.clear();
+			}
+		}
+
+		/**
+		 * Returns whether this subscription was cancelled.
+		 *
+		 * @return True if no more events are delivered.
+		 */
+		public boolean isCancelled() {
+			return mCancelled;
+		}
+
+		/**
+		 * Returns the number of move and resize events that were replaced by
+		 * newer ones before they were delivered.
+		 *
+		 * @return The number of events conflated.
+		 */
+		public synchronized long getConflatedCount() {
+			return mConflatedCount;
+		}
+
+		/**
+		 * Returns the number of events dropped because the buffer was full.
+		 *
+		 * @return The number of events dropped.
+		 */
+		public synchronized long getDroppedCount() {
+			return mDroppedCount;
+		}
+
+		void offer(WindowEvent event) {
+			synchronized (this) {
+				if (mCancelled) {
+					return;
+				}
+
+				Key key = null;
+				if (event.isConflatable()) {
+					key = new Key(event);
+					Slot waiting = mConflatable.get(key);
+					if (waiting != null) {
+						waiting.event = event;
+						mConflatedCount++;
+						return;
+					}
+				}
+
+				if (mBuffer.size() >= mCapacity) {
+					Slot oldest = mBuffer.removeFirst();
+					if (oldest.key != null) {
+						mConflatable.remove(oldest.key);
+					}
+					mDroppedCount++;
+				}
+
+				Slot slot = new Slot(event, key);
+				mBuffer.addLast(slot);
+				if (key != null) {
+					mConflatable.put(key, slot);
+				}
+			}
+			schedule();
+		}
+
+		private void schedule() {
+			synchronized (this) {
+				if (mDraining || mCancelled || mDemand == 0
+						|| mBuffer.isEmpty()) {
+					return;
+				}
+				mDraining = true;
+			}
+			getExecutor().execute(mDrain);
+		}
+
+		private void drain() {
+			while (true) {
+				WindowEvent event;
+				synchronized (this) {
+					if (mCancelled || mDemand == 0 || mBuffer.isEmpty()) {
+						mDraining = false;
+						return;
+					}
+
+					Slot slot = mBuffer.removeFirst();
+					if (slot.key != null) {
+						mConflatable.remove(slot.key);
+					}
+					if (mDemand != Long.MAX_VALUE) {
+						mDemand--;
+					}
+					event = slot.event;
+				}
+
+				try {
+					mSubscriber.onEvent(event);
+				} catch (RuntimeException ex) {
+					Log.w(StandOutWindow.TAG,
+							"Window event subscriber failed, cancelling.", ex);
+					synchronized (this) {
+						mDraining = false;
+					}
+					cancel();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The number of undelivered events kept for each subscriber.
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	// copied on write, so publishing reads it without locking
+	private static volatile Subscription[] sSubscriptions = new Subscription[0];
+	private static ExecutorService sExecutor;
+
+	private WindowEventStream() {
+	}
+
+	/**
+	 * Start receiving events, keeping up to {@link #DEFAULT_CAPACITY}
+	 * undelivered events.
+	 *
+	 * @param subscriber
+	 *            The subscriber.
+	 * @return The subscription, which is also passed to
+	 *         {@link Subscriber#onSubscribe(Subscription)}.
+	 */
+	public static Subscription subscribe(Subscriber subscriber) {
+		return subscribe(subscriber, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Start receiving events.
+	 *
+	 * @param subscriber
+	 *            The subscriber.
+	 * @param capacity
+	 *            The number of undelivered events to keep.
+	 * @return The subscription, which is also passed to
+	 *         {@link Subscriber#onSubscribe(Subscription)}.
+	 */
+	public static Subscription subscribe(Subscriber subscriber, int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException(
+					"Capacity must be at least 1.");
+		}
+
+		Subscription subscription = new Subscription(subscriber, capacity);
+		subscriber.onSubscribe(subscription);
+
+		synchronized (WindowEventStream.class) {
+			Subscription[] subscriptions = new Subscription[sSubscriptions.length + 1];
+			System.arraycopy(sSubscriptions, 0, subscriptions, 0,
+					sSubscriptions.length);
+			subscriptions[sSubscriptions.length] = subscription;
+			sSubscriptions = subscriptions;
+		}
+		return subscription;
+	}
+
+	/**
+	 * Returns whether anyone is subscribed.
+	 *
+	 * @return True if published events are delivered.
+	 */
+	public static boolean hasSubscribers() {
+		return sSubscriptions.length > 0;
+	}
+
+	/**
+	 * Publish an event for the window, with its current geometry.
+	 *
+	 * @param type
+	 *            One of the {@link WindowEvent} TYPE_ constants.
+	 * @param window
+	 *            The window.
+	 */
+	static void publish(int type, Window window) {
+		Subscription[] subscriptions = sSubscriptions;
+		if (subscriptions.length == 0) {
+			return;
+		}
+
+		StandOutWindow.StandOutLayoutParams params = window.getLayoutParams();
+		WindowEvent event = new WindowEvent(type, window.cls, window.id,
+				params.x, params.y, params.width, params.height,
+				SystemClock.uptimeMillis());
+		for (Subscription subscription : subscriptions) {
+			subscription.offer(event);
+		}
+	}
+
+	private static void remove(Subscription subscription) {
+		synchronized (WindowEventStream.class) {
+			int index = -1;
+			for (int i = 0; i < sSubscriptions.length; i++) {
+				if (sSubscriptions[i] == subscription) {
+					index = i;
+					break;
+				}
+			}
+			if (index < 0) {
+				return;
+			}
+
+			Subscription[] subscriptions = new Subscription[sSubscriptions.length - 1];
+			System.arraycopy(sSubscriptions, 0, subscriptions, 0, index);
+			System.arraycopy(sSubscriptions, index + 1, subscriptions, index,
+					subscriptions.length - index);
+			sSubscriptions = subscriptions;
+		}
+	}
+
+	private static synchronized ExecutorService getExecutor() {
+		if (sExecutor == null) {
+			sExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "WindowEventStream");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return sExecutor;
+	}
+}
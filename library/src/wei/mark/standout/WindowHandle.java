@@ -0,0 +1,57 @@
+package wei.mark.standout;
+
+import wei.mark.standout.ui.Window;
+
+/**
+ * Direct reference to a cached window. Methods of {@link StandOutWindow} that
+ * take a handle skip the lookup of the window by class and id.
+ *
+ * <p>
+ * A handle stays valid while the window is shown or hidden, and becomes
+ * invalid once the window is closed. Get the handle of a window with
+ * {@link StandOutWindow#getHandle(int)}.
+ */
+public final class WindowHandle {
+	final int slot;
+	final int id;
+	volatile Window window;
+
+	WindowHandle(int slot, int id, Window window) {
+		this.slot = slot;
+		this.id = id;
+		this.window = window;
+	}
+
+	/**
+	 * Returns the id of the window.
+	 *
+	 * @return The id.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the window.
+	 *
+	 * @return The window, or null if it was closed.
+	 */
+	public Window getWindow() {
+		return window;
+	}
+
+	/**
+	 * Returns whether the window is still shown or hidden.
+	 *
+	 * @return True if the window has not been closed.
+	 */
+	public boolean isValid() {
+		return window != null;
+	}
+
+	@Override
+	public String toString() {
+		return "WindowHandle { slot=" + slot + ", id=" + id + ", valid="
+				+ isValid() + " }";
+	}
+}
@@ -0,0 +1,475 @@
+package wei.mark.standout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A uniform grid of window rectangles, answering where windows are relative
+ * to each other without scanning every window.
+ *
+ * <p>
+ * Each rectangle is listed in every grid cell it touches. A query only looks
+ * at the cells its point or rectangle touches, so its cost depends on the
+ * windows nearby rather than on the number of windows. A query touching more
+ * cells than there are windows checks every window instead, so a large
+ * rectangle or distance costs no more than a scan. Rectangles are
+ * half-open: a window at x with width w covers x up to, not including, x + w.
+ *
+ * <p>
+ * Entries also have a z-order. Entries put or raised later are on top, which
+ * {@link #windowAt(int, int)} uses to pick one of several windows under a
+ * point.
+ *
+ * <p>
+ * This class does not depend on Android and is not thread-safe. The index
+ * used by {@link StandOutWindow} is only touched on the main thread.
+ *
+ * @param <T>
+ *            The type of the windows.
+ */
+public class WindowIndex<T> {
+	/**
+	 * The cell size used by {@link #WindowIndex()}, in pixels.
+	 */
+	public static final int DEFAULT_CELL_SIZE = 128;
+
+	/**
+	 * Returned by {@link Edges} for a side without an edge in range.
+	 */
+	public static final int NO_EDGE = Integer.MIN_VALUE;
+
+	/**
+	 * The edges of other windows nearest to each side of a rectangle, for
+	 * snapping.
+	 */
+	public static class Edges {
+		/**
+		 * The x of the vertical edge nearest to the left side, or
+		 * {@link WindowIndex#NO_EDGE}.
+		 */
+		public int left = NO_EDGE;
+
+		/**
+		 * The y of the horizontal edge nearest to the top side, or
+		 * {@link WindowIndex#NO_EDGE}.
+		 */
+		public int top = NO_EDGE;
+
+		/**
+		 * The x of the vertical edge nearest to the right side, or
+		 * {@link WindowIndex#NO_EDGE}.
+		 */
+		public int right = NO_EDGE;
+
+		/**
+		 * The y of the horizontal edge nearest to the bottom side, or
+		 * {@link WindowIndex#NO_EDGE}.
+		 */
+		public int bottom = NO_EDGE;
+
+		@Override
+		public String toString() {
+			return "Edges { left=" + left + ", top=" + top + ", right="
+					+ right + ", bottom=" + bottom + " }";
+		}
+	}
+
+	private static class Entry<T> {
+		final T window;
+		int left, top, right, bottom;
+		long z;
+
+		// the query that last visited this entry, to visit it once
+		int visited;
+
+		Entry(T window) {
+			this.window = window;
+		}
+
+		boolean contains(int x, int y) {
+			return x >= left && x < right && y >= top && y < bottom;
+		}
+
+		boolean intersects(int l, int t, int r, int b) {
+			return left < r && l < right && top < b && t < bottom;
+		}
+	}
+
+	// bottom to top
+	private static final Comparator<Entry<?>> Z_ORDER = new Comparator<Entry<?>>() {
+		@Override
+		public int compare(Entry<?> first, Entry<?> second) {
+			return first.z < second.z ? -1 : (first.z == second.z ? 0 : 1);
+		}
+	};
+
+	private final int mCellSize;
+	private final HashMap<T, Entry<T>> mEntries;
+
+	// entries by cell, keyed by packed cell coordinates
+	private final HashMap<Long, ArrayList<Entry<T>>> mCells;
+
+	private long mNextZ;
+	private int mQuery;
+
+	public WindowIndex() {
+		this(DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * @param cellSize
+	 *            The width and height of a grid cell, in pixels. About the
+	 *            size of a small window works well.
+	 */
+	public WindowIndex(int cellSize) {
+		if (cellSize < 1) {
+			throw new IllegalArgumentException("Cell size must be positive.");
+		}
+		mCellSize = cellSize;
+		mEntries = new HashMap<T, Entry<T>>();
+		mCells = new HashMap<Long, ArrayList<Entry<T>>>();
+	}
+
+	/**
+	 * Add the window on top of all others, or move it if it is indexed. An
+	 * indexed window keeps its z-order.
+	 *
+	 * @param window
+	 *            The window.
+	 * @param left
+	 *            The left edge.
+	 * @param top
+	 *            The top edge.
+	 * @param right
+	 *            The right edge, exclusive.
+	 * @param bottom
+	 *            The bottom edge, exclusive.
+	 */
+	public void put(T window, int left, int top, int right, int bottom) {
+		Entry<T> entry = mEntries.get(window);
+		if (entry == null) {
+			entry = new Entry<T>(window);
+			entry.z = mNextZ++;
+			mEntries.put(window, entry);
+		} else {
+			if (entry.left == left && entry.top == top
+					&& entry.right == right && entry.bottom == bottom) {
+				return;
+			}
+			unlink(entry);
+		}
+
+		entry.left = left;
+		entry.top = top;
+		entry.right = Math.max(left, right);
+		entry.bottom = Math.max(top, bottom);
+		link(entry);
+	}
+
+	/**
+	 * Move the window on top of all others.
+	 *
+	 * @param window
+	 *            The window.
+	 * @return True if the window is indexed.
+	 */
+	public boolean raise(T window) {
+		Entry<T> entry = mEntries.get(window);
+		if (entry == null) {
+			return false;
+		}
+		entry.z = mNextZ++;
+		return true;
+	}
+
+	/**
+	 * Remove the window.
+	 *
+	 * @param window
+	 *            The window.
+	 * @return True if the window was indexed.
+	 */
+	public boolean remove(T window) {
+		Entry<T> entry = mEntries.remove(window);
+		if (entry == null) {
+			return false;
+		}
+		unlink(entry);
+		return true;
+	}
+
+	/**
+	 * Returns whether the window is indexed.
+	 *
+	 * @param window
+	 *            The window.
+	 * @return True if the window is indexed.
+	 */
+	public boolean contains(T window) {
+		return mEntries.containsKey(window);
+	}
+
+	/**
+	 * Returns the number of indexed windows.
+	 *
+	 * @return The number of windows.
+	 */
+	public int size() {
+		return mEntries.size();
+	}
+
+	/**
+	 * Remove all windows.
+	 */
+	public void clear() {
+		mEntries.clear();
+		mCells.clear();
+	}
+
+	/**
+	 * Returns the topmost window under the point.
+	 *
+	 * @param x
+	 *            The x of the point.
+	 * @param y
+	 *            The y of the point.
+	 * @return The window, or null if there is none.
+	 */
+	public T windowAt(int x, int y) {
+		ArrayList<Entry<T>> cell = mCells.get(key(cell(x), cell(y)));
+		if (cell == null) {
+			return null;
+		}
+
+		Entry<T> top = null;
+		for (Entry<T> entry : cell) {
+			if (entry.contains(x, y) && (top == null || entry.z > top.z)) {
+				top = entry;
+			}
+		}
+		return top != null ? top.window : null;
+	}
+
+	/**
+	 * Returns the windows overlapping the rectangle, bottom to top.
+	 *
+	 * @param left
+	 *            The left edge.
+	 * @param top
+	 *            The top edge.
+	 * @param right
+	 *            The right edge, exclusive.
+	 * @param bottom
+	 *            The bottom edge, exclusive.
+	 * @return The windows, possibly empty.
+	 */
+	public List<T> overlapping(int left, int top, int right, int bottom) {
+		ArrayList<Entry<T>> found = new ArrayList<Entry<T>>();
+		if (right > left && bottom > top) {
+			long columns = (long) cell(right - 1) - cell(left) + 1L;
+			long rows = (long) cell(bottom - 1) - cell(top) + 1L;
+			int size = mEntries.size();
+			if (columns > size || rows > size || columns * rows > size) {
+				// more cells than windows, so checking every window is cheaper
+				for (Entry<T> entry : mEntries.values()) {
+					// like the cells, which do not list empty rectangles
+					if (entry.right != entry.left && entry.bottom != entry.top
+							&& entry.intersects(left, top, right, bottom)) {
+						found.add(entry);
+					}
+				}
+			} else {
+				int query = ++mQuery;
+				for (long cx = cell(left); cx <= cell(right - 1); cx++) {
+					for (long cy = cell(top); cy <= cell(bottom - 1); cy++) {
+						ArrayList<Entry<T>> cell = mCells.get(key((int) cx,
+								(int) cy));
+						if (cell == null) {
+							continue;
+						}
+						for (Entry<T> entry : cell) {
+							if (entry.visited != query
+									&& entry.intersects(left, top, right,
+											bottom)) {
+								entry.visited = query;
+								found.add(entry);
+							}
+						}
+					}
+				}
+			}
+		}
+
+		Collections.sort(found, Z_ORDER);
+
+		ArrayList<T> windows = new ArrayList<T>(found.size());
+		for (Entry<T> entry : found) {
+			windows.add(entry.window);
+		}
+		return windows;
+	}
+
+	/**
+	 * Returns the edges of other windows nearest to each side of the
+	 * rectangle, within the distance. Both edges of a window count for each
+	 * side, so a side can snap next to a window or line up with it. Only
+	 * windows that come within the distance of the rectangle are considered.
+	 *
+	 * @param left
+	 *            The left edge.
+	 * @param top
+	 *            The top edge.
+	 * @param right
+	 *            The right edge, exclusive.
+	 * @param bottom
+	 *            The bottom edge, exclusive.
+	 * @param maxDistance
+	 *            How far to look, in pixels.
+	 * @param exclude
+	 *            A window to ignore, such as the one being moved, or null.
+	 * @return The nearest edges.
+	 */
+	public Edges nearestEdges(int left, int top, int right, int bottom,
+			int maxDistance, T exclude) {
+		Edges edges = new Edges();
+		if (maxDistance < 0) {
+			return edges;
+		}
+		long[] distances = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE,
+				Long.MAX_VALUE };
+
+		// in longs, so a large distance does not overflow
+		long l = (long) left - maxDistance, t = (long) top - maxDistance;
+		long r = (long) right + maxDistance, b = (long) bottom + maxDistance;
+
+		long columns = cell(r) - cell(l) + 1L;
+		long rows = cell(b) - cell(t) + 1L;
+		int size = mEntries.size();
+		if (columns > size || rows > size || columns * rows > size) {
+			// more cells than windows, so checking every window is cheaper
+			for (Entry<T> entry : mEntries.values()) {
+				// like the cells, which do not list empty rectangles
+				if (entry.right != entry.left && entry.bottom != entry.top) {
+					addEdges(edges, distances, entry, left, top, right, bottom,
+							l, t, r, b, maxDistance, exclude);
+				}
+			}
+			return edges;
+		}
+
+		int query = ++mQuery;
+		for (long cx = cell(l); cx <= cell(r); cx++) {
+			for (long cy = cell(t); cy <= cell(b); cy++) {
+				ArrayList<Entry<T>> cell = mCells.get(key((int) cx, (int) cy));
+				if (cell == null) {
+					continue;
+				}
+				for (Entry<T> entry : cell) {
+					if (entry.visited != query) {
+						entry.visited = query;
+						addEdges(edges, distances, entry, left, top, right,
+								bottom, l, t, r, b, maxDistance, exclude);
+					}
+				}
+			}
+		}
+		return edges;
+	}
+
+	// take the edges of the entry where they are nearer than the best so far
+	private static <T> void addEdges(Edges edges, long[] distances,
+			Entry<T> entry, int left, int top, int right, int bottom, long l,
+			long t, long r, long b, int maxDistance, T exclude) {
+		if (entry.window == exclude) {
+			return;
+		}
+
+		// within reach, edges touching included
+		if (entry.left > r || l > entry.right || entry.top > b
+				|| t > entry.bottom) {
+			return;
+		}
+
+		edges.left = nearer(edges.left, distances, 0, left, entry.left,
+				entry.right, maxDistance);
+		edges.top = nearer(edges.top, distances, 1, top, entry.top,
+				entry.bottom, maxDistance);
+		edges.right = nearer(edges.right, distances, 2, right, entry.left,
+				entry.right, maxDistance);
+		edges.bottom = nearer(edges.bottom, distances, 3, bottom, entry.top,
+				entry.bottom, maxDistance);
+	}
+
+	// the nearer of the best edge so far and the two candidates
+	private static int nearer(int best, long[] distances, int side, int from,
+			int first, int second, int maxDistance) {
+		long firstDistance = Math.abs((long) first - from);
+		if (firstDistance <= maxDistance && firstDistance < distances[side]) {
+			distances[side] = firstDistance;
+			best = first;
+		}
+		long secondDistance = Math.abs((long) second - from);
+		if (secondDistance <= maxDistance && secondDistance < distances[side]) {
+			distances[side] = secondDistance;
+			best = second;
+		}
+		return best;
+	}
+
+	private void link(Entry<T> entry) {
+		if (entry.right == entry.left || entry.bottom == entry.top) {
+			return;
+		}
+
+		for (int cx = cell(entry.left); cx <= cell(entry.right - 1); cx++) {
+			for (int cy = cell(entry.top); cy <= cell(entry.bottom - 1); cy++) {
+				Long key = key(cx, cy);
+				ArrayList<Entry<T>> cell = mCells.get(key);
+				if (cell == null) {
+					cell = new ArrayList<Entry<T>>(4);
+					mCells.put(key, cell);
+				}
+				cell.add(entry);
+			}
+		}
+	}
+
+	private void unlink(Entry<T> entry) {
+		if (entry.right == entry.left || entry.bottom == entry.top) {
+			return;
+		}
+
+		for (int cx = cell(entry.left); cx <= cell(entry.right - 1); cx++) {
+			for (int cy = cell(entry.top); cy <= cell(entry.bottom - 1); cy++) {
+				Long key = key(cx, cy);
+				ArrayList<Entry<T>> cell = mCells.get(key);
+				if (cell != null) {
+					cell.remove(entry);
+					if (cell.isEmpty()) {
+						mCells.remove(key);
+					}
+				}
+			}
+		}
+	}
+
+	// floor division, so negative coordinates get their own cells
+	private int cell(int coordinate) {
+		int cell = coordinate / mCellSize;
+		return coordinate < 0 && cell * mCellSize != coordinate ? cell - 1
+				: cell;
+	}
+
+	// the cell of a coordinate that may be outside the int range
+	private int cell(long coordinate) {
+		return cell((int) Math.max(Integer.MIN_VALUE,
+				Math.min(Integer.MAX_VALUE, coordinate)));
+	}
+
+	private static Long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+}
@@ -0,0 +1,90 @@
+package wei.mark.standout;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import wei.mark.standout.ui.Window;
+
+/**
+ * Keeps closed windows of a {@link StandOutWindow} so that they can be shown
+ * again without inflating and wiring a new view hierarchy.
+ *
+ * <p>
+ * This class must only be used from the main thread.
+ */
+public class WindowPool {
+	private final LinkedList<Window> mWindows;
+	private final int mMaxSize;
+
+	/**
+	 * @param maxSize
+	 *            The maximum number of idle windows to keep. 0 disables the
+	 *            pool.
+	 */
+	public WindowPool(int maxSize) {
+		mWindows = new LinkedList<Window>();
+		mMaxSize = Math.max(0, maxSize);
+	}
+
+	/**
+	 * Add an idle window to the pool.
+	 *
+	 * @param window
+	 *            The window, which must not be attached to the window manager.
+	 * @return True if the window was kept, false if the pool is full.
+	 */
+	public boolean offer(Window window) {
+		if (mWindows.size() >= mMaxSize) {
+			return false;
+		}
+
+		mWindows.addLast(window);
+		return true;
+	}
+
+	/**
+	 * Take an idle window out of the pool. A window that was last used for the
+	 * same id is preferred.
+	 *
+	 * @param id
+	 *            The id the window will be used for.
+	 * @return An idle window, or null if the pool is empty.
+	 */
+	public Window obtain(int id) {
+		Iterator<Window> iterator = mWindows.iterator();
+		while (iterator.hasNext()) {
+			Window window = iterator.next();
+			if (window.id == id) {
+				iterator.remove();
+				return window;
+			}
+		}
+
+		return mWindows.poll();
+	}
+
+	/**
+	 * Returns the number of idle windows in the pool.
+	 *
+	 * @return The number of idle windows.
+	 */
+	public int size() {
+		return mWindows.size();
+	}
+
+	/**
+	 * Returns whether the pool can accept another window.
+	 *
+	 * @return True if the pool is full.
+	 */
+	public boolean isFull() {
+		return mWindows.size() >= mMaxSize;
+	}
+
+	/**
+	 * Drop all idle windows.
+	 */
+	public void clear() {
+		mWindows.clear();
+	}
+}
@@ -0,0 +1,116 @@
+package wei.mark.standout;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import wei.mark.standout.ui.Window;
+
+/**
+ * Keeps the shown windows in the order the window manager stacks them, from
+ * the bottom to the top. All operations are O(1).
+ *
+ * <p>
+ * Windows of every {@link StandOutWindow} in the process are added to the
+ * window manager with the same window type, so they share one stack.
+ *
+ * <p>
+ * This class must only be used from the main thread.
+ */
+public class WindowStack {
+	private static class Node {
+		final Window window;
+		Node above, below;
+
+		Node(Window window) {
+			this.window = window;
+		}
+	}
+
+	private final Map<Window, Node> mNodes;
+	private Node mTop;
+
+	public WindowStack() {
+		mNodes = new HashMap<Window, Node>();
+		mTop = null;
+	}
+
+	/**
+	 * Put the window on top of the stack, moving it if it is already in the
+	 * stack.
+	 *
+	 * @param window
+	 *            The window that was just shown or brought to the front.
+	 */
+	public void push(Window window) {
+		Node node = mNodes.get(window);
+		if (node == null) {
+			node = new Node(window);
+			mNodes.put(window, node);
+		} else if (node == mTop) {
+			return;
+		} else {
+			unlink(node);
+		}
+
+		node.below = mTop;
+		node.above = null;
+		if (mTop != null) {
+			mTop.above = node;
+		}
+		mTop = node;
+	}
+
+	/**
+	 * Remove the window from the stack.
+	 *
+	 * @param window
+	 *            The window that was removed from the window manager.
+	 */
+	public void remove(Window window) {
+		Node node = mNodes.remove(window);
+		if (node != null) {
+			unlink(node);
+		}
+	}
+
+	/**
+	 * Returns whether the window is on top of all other windows.
+	 *
+	 * @param window
+	 *            The window.
+	 * @return True if the window is on top.
+	 */
+	public boolean isTop(Window window) {
+		return mTop != null && mTop.window == window;
+	}
+
+	/**
+	 * Returns the window directly below the given window.
+	 *
+	 * @param window
+	 *            The window.
+	 * @return The window below, or null if there is none or the window is not
+	 *         in the stack.
+	 */
+	public Window below(Window window) {
+		Node node = mNodes.get(window);
+		if (node == null || node.below == null) {
+			return null;
+		}
+		return node.below.window;
+	}
+
+	private void unlink(Node node) {
+		if (node.above != null) {
+			node.above.below = node.below;
+		} else {
+			mTop = node.below;
+		}
+
+		if (node.below != null) {
+			node.below.above = node.above;
+		}
+
+		node.above = node.below = null;
+	}
+}
@@ -89,7 +89,8 @@ public class StandOutFlags {
 	 * <p>
 	 * Note that if you set this flag, there is a noticeable flashing of the
 	 * window during {@link MotionEvent#ACTION_UP}. This the hack that allows
-	 * the system to bring the window to the front.
+	 * the system to bring the window to the front. Windows that are already in
+	 * front are left alone.
 	 */
 	public static final int FLAG_WINDOW_BRING_TO_FRONT_ON_TOUCH = 1 << flag_bit++;
 
@@ -100,7 +101,8 @@ public class StandOutFlags {
 	 * <p>
 	 * Note that if you set this flag, there is a noticeable flashing of the
 	 * window during {@link MotionEvent#ACTION_UP}. This the hack that allows
-	 * the system to bring the window to the front.
+	 * the system to bring the window to the front. Windows that are already in
+	 * front are left alone.
 	 */
 	public static final int FLAG_WINDOW_BRING_TO_FRONT_ON_TAP = 1 << flag_bit++;
 
@@ -7,6 +7,8 @@ import wei.mark.standout.R;
 import wei.mark.standout.StandOutWindow;
 import wei.mark.standout.StandOutWindow.StandOutLayoutParams;
 import wei.mark.standout.Utils;
+import wei.mark.standout.WindowAnimator;
+import wei.mark.standout.WindowAnimator.Spring;
 import wei.mark.standout.constants.StandOutFlags;
 import android.content.Context;
 import android.os.Bundle;
@@ -18,6 +20,7 @@ import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.animation.Interpolator;
 import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.PopupWindow;
@@ -79,6 +82,13 @@ public class Window extends FrameLayout {
 	 */
 	int displayWidth, displayHeight;
 
+	/**
+	 * Position, size and flags last applied by the window manager. Used to
+	 * skip layout updates that would not change anything.
+	 */
+	private int appliedX, appliedY, appliedWidth, appliedHeight, appliedFlags;
+	private boolean layoutApplied;
+
 	/**
 	 * Context of the window.
 	 */
@@ -134,11 +144,13 @@ public class Window extends FrameLayout {
 				boolean consumed = false;
 
 				// handle move and bring to front
-				consumed = context.onTouchHandleMove(id, Window.this, v, event)
+				consumed = context.onTouchHandleMove(Window.this.id,
+						Window.this, v, event)
 						|| consumed;
 
 				// alert implementation
-				consumed = context.onTouchBody(id, Window.this, v, event)
+				consumed = context.onTouchBody(Window.this.id, Window.this, v,
+						event)
 						|| consumed;
 
 				return consumed;
@@ -170,6 +182,33 @@ public class Window extends FrameLayout {
 		setTag(body.getTag());
 	}
 
+	/**
+	 * Prepare this pooled window to be shown again for the id. Resets the id,
+	 * layout params, touch information, data and title. The view hierarchy
+	 * created by {@link StandOutWindow#createAndAttachView(int, FrameLayout)}
+	 * is kept as is.
+	 * 
+	 * @param id
+	 *            The id the window is reused for.
+	 */
+	public void rebind(int id) {
+		this.id = id;
+		this.visibility = VISIBILITY_GONE;
+		this.focused = false;
+		this.originalParams = mContext.getParams(id, this);
+		this.touchInfo = new TouchInfo();
+		touchInfo.ratio = (float) originalParams.width / originalParams.height;
+		this.data.clear();
+		layoutApplied = false;
+
+		setLayoutParams(originalParams);
+
+		View title = findViewById(R.id.title);
+		if (title instanceof TextView) {
+			((TextView) title).setText(mContext.getTitle(id));
+		}
+	}
+
 	@Override
 	public boolean onInterceptTouchEvent(MotionEvent event) {
 		StandOutLayoutParams params = getLayoutParams();
@@ -331,6 +370,83 @@ public class Window extends FrameLayout {
 		return false;
 	}
 
+	/**
+	 * Returns whether applying the params would change the position, size or
+	 * flags of this window as last applied by the window manager.
+	 * 
+	 * @param params
+	 *            The layout params about to be applied.
+	 * @return True if the window would change, false if the update can be
+	 *         skipped.
+	 */
+	public boolean isLayoutChanged(StandOutLayoutParams params) {
+		return !layoutApplied || params.x != appliedX || params.y != appliedY
+				|| params.width != appliedWidth
+				|| params.height != appliedHeight
+				|| params.flags != appliedFlags;
+	}
+
+	/**
+	 * Returns whether applying the params would move the window.
+	 * 
+	 * @param params
+	 *            The layout params about to be applied.
+	 * @return True if the position differs from the last applied params.
+	 */
+	public boolean isPositionChanged(StandOutLayoutParams params) {
+		return !layoutApplied || params.x != appliedX || params.y != appliedY;
+	}
+
+	/**
+	 * Returns whether applying the params would resize the window.
+	 * 
+	 * @param params
+	 *            The layout params about to be applied.
+	 * @return True if the size differs from the last applied params.
+	 */
+	public boolean isSizeChanged(StandOutLayoutParams params) {
+		return !layoutApplied || params.width != appliedWidth
+				|| params.height != appliedHeight;
+	}
+
+	/**
+	 * Draw the content of this window from a bitmap while a show, hide or
+	 * close animation plays, instead of redrawing the whole view tree every
+	 * frame. Enable it when the animation starts and disable it when it ends.
+	 * 
+	 * @param enabled
+	 *            Whether to draw the content from its drawing cache.
+	 */
+	public void setTransitionCacheEnabled(boolean enabled) {
+		setChildrenDrawingCacheEnabled(enabled);
+		setChildrenDrawnWithCacheEnabled(enabled);
+	}
+
+	/**
+	 * Record the params that were just applied by the window manager.
+	 * 
+	 * @param params
+	 *            The layout params applied.
+	 */
+	public void onLayoutApplied(StandOutLayoutParams params) {
+		appliedX = params.x;
+		appliedY = params.y;
+		appliedWidth = params.width;
+		appliedHeight = params.height;
+		appliedFlags = params.flags;
+		layoutApplied = true;
+	}
+
+	@Override
+	protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+		super.onSizeChanged(w, h, oldw, oldh);
+
+		// fill and wrap sizes are only known now
+		if (mContext != null) {
+			mContext.onWindowSizeChanged(this);
+		}
+	}
+
 	@Override
 	public void setLayoutParams(ViewGroup.LayoutParams params) {
 		if (params instanceof StandOutLayoutParams) {
@@ -430,7 +546,7 @@ public class Window extends FrameLayout {
 					int oldY = data
 							.getInt(WindowDataKeys.Y_BEFORE_MAXIMIZE, -1);
 					edit().setSize(oldWidth, oldHeight).setPosition(oldX, oldY)
-							.commit();
+							.animate();
 				} else {
 					data.putBoolean(WindowDataKeys.IS_MAXIMIZED, true);
 					data.putInt(WindowDataKeys.WIDTH_BEFORE_MAXIMIZE,
@@ -439,7 +555,7 @@ public class Window extends FrameLayout {
 							params.height);
 					data.putInt(WindowDataKeys.X_BEFORE_MAXIMIZE, params.x);
 					data.putInt(WindowDataKeys.Y_BEFORE_MAXIMIZE, params.y);
-					edit().setSize(1f, 1f).setPosition(0, 0).commit();
+					edit().setSize(1f, 1f).setPosition(0, 0).animate();
 				}
 			}
 		});
@@ -622,9 +738,17 @@ public class Window extends FrameLayout {
 		 */
 		float anchorX, anchorY;
 
+		// the geometry before editing, where an animation starts
+		int startX, startY, startWidth, startHeight;
+
 		public Editor() {
 			mParams = getLayoutParams();
 			anchorX = anchorY = 0;
+
+			startX = mParams.x;
+			startY = mParams.y;
+			startWidth = mParams.width;
+			startHeight = mParams.height;
 		}
 
 		public Editor setAnchorPoint(float x, float y) {
@@ -829,15 +953,78 @@ public class Window extends FrameLayout {
 		}
 
 		/**
-		 * Commit the changes to this window. Updates the layout. This Editor
-		 * cannot be used after you commit.
+		 * Commit the changes to this window. The layout is updated on the next
+		 * display frame, together with any other changes committed during the
+		 * same frame. This Editor cannot be used after you commit.
+		 * 
+		 * @see StandOutWindow#scheduleViewLayout(int, StandOutLayoutParams)
 		 */
 		public void commit() {
 			if (mParams != null) {
-				mContext.updateViewLayout(id, mParams);
+				mContext.scheduleViewLayout(id, mParams);
 				mParams = null;
 			}
 		}
+
+		/**
+		 * Commit the changes to this window as an animation from its previous
+		 * position and size, lasting
+		 * {@link WindowAnimator#DEFAULT_DURATION_MILLIS}. This Editor cannot be
+		 * used after you animate.
+		 * 
+		 * @see WindowAnimator
+		 */
+		public void animate() {
+			animate(WindowAnimator.DEFAULT_DURATION_MILLIS, null);
+		}
+
+		/**
+		 * Commit the changes to this window as an animation from its previous
+		 * position and size. This Editor cannot be used after you animate.
+		 * 
+		 * @param duration
+		 *            The duration in milliseconds.
+		 * @param interpolator
+		 *            The interpolator, or null for accelerate/decelerate.
+		 * @see WindowAnimator
+		 */
+		public void animate(long duration, Interpolator interpolator) {
+			if (mParams != null) {
+				int x = mParams.x, y = mParams.y;
+				int width = mParams.width, height = mParams.height;
+				restoreStart();
+				mContext.getWindowAnimator().animate(id, mParams, x, y,
+						width, height, duration, interpolator, null);
+				mParams = null;
+			}
+		}
+
+		/**
+		 * Commit the changes to this window as a spring animation from its
+		 * previous position and size. This Editor cannot be used after you
+		 * animate.
+		 * 
+		 * @param spring
+		 *            The spring.
+		 * @see WindowAnimator
+		 */
+		public void animate(Spring spring) {
+			if (mParams != null) {
+				int x = mParams.x, y = mParams.y;
+				int width = mParams.width, height = mParams.height;
+				restoreStart();
+				mContext.getWindowAnimator().animate(id, mParams, x, y,
+						width, height, spring, null);
+				mParams = null;
+			}
+		}
+
+		private void restoreStart() {
+			mParams.x = startX;
+			mParams.y = startY;
+			mParams.width = startWidth;
+			mParams.height = startHeight;
+		}
 	}
 
 	public static class WindowDataKeys {